@@ -0,0 +1,56 @@
+package imsam.probability;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of sampling from and querying a histogram, by histogram size.
+ *
+ * Run with: ./gradlew jmh -Pjmh.includes=DiscreteProbabilityDistributionBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiscreteProbabilityDistributionBenchmark {
+
+    @Param({ "4", "64", "1024", "16384" })
+    public int size;
+
+    private DiscreteProbabilityDistribution distribution;
+    private RandomStream random;
+
+    @Setup
+    public void setup() {
+        random = new RandomStream(1);
+        StringBuilder histogram = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            histogram.append(i).append(' ').append(random.nextDouble()).append('\n');
+        }
+        distribution = DiscreteProbabilityDistribution.fromStringBasic(histogram.toString());
+    }
+
+    @Benchmark
+    public double random() {
+        return distribution.random();
+    }
+
+    @Benchmark
+    public double getProbability() {
+        return distribution.getProbability(random.nextInt(size));
+    }
+
+}
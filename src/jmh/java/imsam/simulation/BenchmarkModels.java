@@ -0,0 +1,54 @@
+package imsam.simulation;
+
+import imsam.ExtendedWSSA;
+import prism.Prism;
+import prism.PrismDevNullLog;
+import prism.PrismException;
+
+
+/**
+ * Loads the bundled models for benchmarks (see TestModels). A single
+ * PRISM engine is shared, since PRISM should only be initialised once
+ * per JVM.
+ */
+public class BenchmarkModels {
+
+    private static Prism prism = null;
+
+    public static synchronized Prism prism() throws PrismException {
+        if (prism == null) {
+            prism = new Prism(new PrismDevNullLog());
+            prism.initialise();
+        }
+        return prism;
+    }
+
+    /**
+     * @param model bundled model: three_rxn, eight_rxn or birth_process,
+     *              with the time bound used in the demo scripts
+     */
+    public static ExtendedWSSA load(String model, ExtendedWSSA.Engine engine) throws Exception {
+        ExtendedWSSA wssa = new ExtendedWSSA();
+        wssa.prism = prism();
+        wssa.engine = engine;
+        switch (model) {
+        case "three_rxn":
+            wssa.modelFileName = "models/three_rxn/three_rxn.pm";
+            wssa.TMAX = 1;
+            break;
+        case "eight_rxn":
+            wssa.modelFileName = "models/eight_rxn/eight_rxn.pm";
+            wssa.TMAX = 20;
+            break;
+        case "birth_process":
+            wssa.modelFileName = "models/birth_process/birth_process.pm";
+            wssa.TMAX = 0.2;
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown model " + model);
+        }
+        wssa.loadModel();
+        return wssa;
+    }
+
+}
@@ -0,0 +1,81 @@
+package imsam.simulation;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import imsam.Main;
+
+/**
+ * Caller-side cost of the per-step trace message of the samplers
+ * (action, state and time), written three ways: eager string
+ * concatenation, a parameterised message, and a parameterised message
+ * behind isTraceEnabled().
+ *
+ * At WARN the message is discarded, so this is the overhead every step
+ * pays without -vvv. At TRACE it goes through the asynchronous root
+ * logger of log4j2.properties to the log file (the console is turned off),
+ * so this is the time the sampler spends per message with -vvv.
+ *
+ * Run with: ./gradlew jmh -Pjmh.includes=LoggingBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoggingBenchmark {
+
+    static final Logger logger = Main.getLogger(LoggingBenchmark.class);
+
+    @Param({ "WARN", "TRACE" })
+    public String level;
+
+    private final int[] state = { 3, 0, 12, 1, 40, 0, 7 };
+    private final String action = "[R5]";
+    private double time = 0.0;
+
+    @Setup
+    public void setup() {
+        Main.disableConsoleLogging();
+        Main.setLogLevel(Level.getLevel(level));
+    }
+
+    @Benchmark
+    public double eager() {
+        time += 1e-3;
+        logger.trace(action + " " + Arrays.toString(state) + "\t" + time);
+        return time;
+    }
+
+    @Benchmark
+    public double parameterised() {
+        time += 1e-3;
+        logger.trace("{} {}\t{}", action, Arrays.toString(state), time);
+        return time;
+    }
+
+    @Benchmark
+    public double guarded() {
+        time += 1e-3;
+        if (logger.isTraceEnabled()) {
+            logger.trace("{} {}\t{}", action, Arrays.toString(state), time);
+        }
+        return time;
+    }
+
+}
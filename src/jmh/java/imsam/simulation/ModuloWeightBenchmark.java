@@ -0,0 +1,62 @@
+package imsam.simulation;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import imsam.probability.RandomStream;
+
+/**
+ * Cost of the 'modulo' weight of one path, by path length, with the
+ * default 1000 resamples. Dwell times are chosen so the expected path
+ * duration is Tmax/2, i.e. inside the stretch range, so the resampling
+ * always runs.
+ *
+ * Run with: ./gradlew jmh -Pjmh.includes=ModuloWeightBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModuloWeightBenchmark {
+
+    static final double TMAX = 1.0;
+
+    @Param({ "10", "100", "1000", "10000" })
+    public int pathLength;
+
+    @Param({ "false", "true" })
+    public boolean parallel;
+
+    private ModuloHeuristic modulo;
+    private DoubleArrayList dwellTimes;
+    private RandomStream    random;
+
+    @Setup
+    public void setup() {
+        modulo     = new ModuloHeuristic(TMAX, 100, 1000, parallel);
+        random     = new RandomStream(1);
+        dwellTimes = new DoubleArrayList(pathLength);
+        for (int j = 0; j < pathLength; j++) {
+            dwellTimes.add(TMAX / 2 / pathLength * (0.5 + random.nextDouble()));
+        }
+    }
+
+    @Benchmark
+    public double weight() {
+        return modulo.weight(dwellTimes, random);
+    }
+
+}
@@ -0,0 +1,75 @@
+package imsam.simulation;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import imsam.ExtendedWSSA;
+
+/**
+ * Throughput of PathSampler.simulate() on the bundled models, one path per
+ * operation. The "steps" counter gives transitions per second, so the
+ * cost per step is 1e9 / steps in ns; the gc profiler (on by default in
+ * the jmh task) adds the allocation rate per path.
+ *
+ * Run with: ./gradlew jmh -Pjmh.includes=SimulateBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SimulateBenchmark {
+
+    @Param({ "three_rxn", "eight_rxn", "birth_process" })
+    public String model;
+
+    @Param({ "PRISM", "NATIVE" })
+    public ExtendedWSSA.Engine engine;
+
+    private PathSampler sampler;
+    private long path = 0;
+
+    /**
+     * Transitions simulated during the measurement, reported per second
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Steps {
+        public long steps;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            steps = 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        ExtendedWSSA wssa = BenchmarkModels.load(model, engine);
+        sampler = wssa.createSampler(1);
+    }
+
+    @Benchmark
+    public double simulate(Steps counter) throws Exception {
+        long before = sampler.getSteps();
+        sampler.startPath(path++);
+        double weight = sampler.simulate();
+        counter.steps += sampler.getSteps() - before;
+        return weight;
+    }
+
+}
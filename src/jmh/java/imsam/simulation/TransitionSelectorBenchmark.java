@@ -0,0 +1,70 @@
+package imsam.simulation;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import imsam.ExtendedWSSA;
+
+/**
+ * Cost of picking a transition with each TransitionSelector strategy, by
+ * out-degree of the state.
+ *
+ *  - resetAndSelect: all rates change every step (PRISM engine)
+ *  - updateAndSelect: one rate changes per step (dependency-graph updates)
+ *
+ * Run with: ./gradlew jmh -Pjmh.includes=TransitionSelectorBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransitionSelectorBenchmark {
+
+    @Param({ "4", "16", "64", "256", "1024" })
+    public int outDegree;
+
+    @Param({ "LINEAR", "CUMULATIVE", "FENWICK" })
+    public ExtendedWSSA.Selector selectorKind;
+
+    private TransitionSelector selector;
+    private double[] rates;
+    private Random   random;
+
+    @Setup
+    public void setup() {
+        random = new Random(1);
+        rates  = new double[outDegree];
+        for (int i = 0; i < outDegree; i++) {
+            rates[i] = random.nextDouble();
+        }
+        selector = TransitionSelector.create(selectorKind, outDegree);
+        selector.reset(rates, outDegree);
+    }
+
+    @Benchmark
+    public int resetAndSelect() {
+        selector.reset(rates, outDegree);
+        return selector.select(random.nextDouble() * selector.total());
+    }
+
+    @Benchmark
+    public int updateAndSelect() {
+        selector.update(random.nextInt(outDegree), random.nextDouble());
+        return selector.select(random.nextDouble() * selector.total());
+    }
+
+}
@@ -21,30 +21,55 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.lang.Math;
 
 import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.kohsuke.args4j.Option;
 
 import parser.ast.ModulesFile;
-import parser.ast.ConstantList;
-import parser.Values;
+import parser.VarList;
+import parser.type.TypeInt;
 
 import prism.Prism;
 import prism.PrismPrintStreamLog;
 import prism.PrismException;
-import prism.PrismLog;
-import prism.ModelGenerator;
-
-import simulator.RandomNumberGenerator;
-import simulator.SimulatorEngine;
+import prism.PrismLangException;
+
+import imsam.probability.RandomStream;
+import imsam.simulation.BiasTable;
+import imsam.simulation.Checkpoint;
+import imsam.simulation.CrossEntropyTally;
+import imsam.simulation.DoubleArrayList;
+import imsam.simulation.ImportanceFunction;
+import imsam.simulation.ModelConstants;
+import imsam.simulation.NativePathSampler;
+import imsam.simulation.PathRecordWriter;
+import imsam.simulation.PathRecorder;
+import imsam.simulation.PathSampler;
+import imsam.simulation.Predilections;
+import imsam.simulation.PrismPathSampler;
+import imsam.simulation.ProgressCounters;
+import imsam.simulation.ProgressReporter;
+import imsam.simulation.ReactionNetwork;
+import imsam.simulation.RunMetrics;
+import imsam.simulation.SampleStatistics;
+import imsam.simulation.SplittingEstimator;
 
 /**
  * Based on the PRISM API example class
  */
-public class ExtendedWSSA extends Command {
+public class ExtendedWSSA extends Command implements Cloneable {
 
     final static Logger logger = Main.getLogger(ExtendedWSSA.class);
     PrintStream prismStream; 
@@ -75,11 +100,130 @@ public class ExtendedWSSA extends Command {
     @Option(name = "--numModuloSamples", usage = "Number of samples to compute 'modulo' heuristic")
     public int numModuloSamples = 1000;
 
+    @Option(name = "--modulo-parallel", usage = "Split the 'modulo' heuristic samples of each path over all cores")
+    public boolean moduloParallel = false;
+
     @Option(name = "--model", metaVar = "FILENAME", usage = "Prism model file name")
     public String modelFileName = "models/three_rxn.pm";
 
-    @Option(name = "--const", usage = "Model constant name=value")
-    public String modelConstant = "";
+    @Option(name = "--const", metaVar = "NAME=VALUE", usage = "Set a model constant (int, double or bool, as declared); repeatable, or comma-separated as in PRISM: k1=2,deltaR5=40")
+    public List<String> modelConstants = new ArrayList<>();
+
+    @Option(name = "--threads", usage = "Number of worker threads sampling paths in parallel")
+    public int threads = 1;
+
+    @Option(name = "--seed", usage = "Random seed; the samples are reproducible for a given seed, whatever the number of threads")
+    public Long seed = null;
+
+    @Option(name = "--full-path", usage = "Record full path histories in the PRISM engine (for debugging; slower)")
+    public boolean fullPath = false;
+
+    public enum Engine { PRISM, NATIVE }
+
+    @Option(name = "--engine", usage = "Simulation engine: prism (PRISM SimulatorEngine) or native (compiled reaction network)")
+    public Engine engine = Engine.PRISM;
+
+    public enum Selector { LINEAR, CUMULATIVE, FENWICK }
+
+    @Option(name = "--selector", usage = "Transition selection: linear scan, cumulative (binary search over prefix sums) or fenwick (partial-sum tree)")
+    public Selector selector = Selector.LINEAR;
+
+    @Option(name = "--rel-error", usage = "Sample in batches until the confidence interval half-width is at most this fraction of the estimate")
+    public double relError = 0;
+
+    @Option(name = "--conf-width", usage = "Sample in batches until the confidence interval is at most this wide")
+    public double confWidth = 0;
+
+    @Option(name = "--confidence", usage = "Confidence level of the interval used by --rel-error and --conf-width")
+    public double confidence = 0.95;
+
+    @Option(name = "--batch", usage = "Number of runs per batch with --rel-error or --conf-width")
+    public int batchSize = 10000;
+
+    @Option(name = "--max-runs", usage = "Stop batch sampling after this many runs")
+    public long maxRuns = Long.MAX_VALUE;
+
+    @Option(name = "--max-time", usage = "Stop batch sampling after this many seconds")
+    public double maxTime = Double.POSITIVE_INFINITY;
+
+    @Option(name = "--json", metaVar = "FILENAME", usage = "Write the estimate and run metrics (throughput, path lengths, efficiency) to a JSON file")
+    public String jsonFileName = null;
+
+    @Option(name = "--phase-timing", usage = "Measure the time spent probing the constraint, selecting transitions and computing modulo weights (slower)")
+    public boolean phaseTiming = false;
+
+    @Option(name = "--label-cache", metaVar = "ENTRIES", usage = "Memoise the objective and constraint labels per state in a table of ENTRIES (a power of two) per thread; helps models whose paths revisit states")
+    public int labelCacheSize = 0;
+
+    @Option(name = "--dump-samples", metaVar = "FILENAME", usage = "Also write every sample weight to a file, one per line (keeps all samples in memory)")
+    public String dumpSamples = null;
+
+    @Option(name = "--records", metaVar = "FILENAME", usage = "Write a binary record of every path (weight, likelihoods, modulo weight, length, time, hit) to a file; print it with the records subcommand")
+    public String recordsFileName = null;
+
+    @Option(name = "--trajectories", metaVar = "FILENAME", usage = "Write the transitions (time and action) of every path to a binary file; print it with the records subcommand")
+    public String trajectoriesFileName = null;
+
+    @Option(name = "--progress", metaVar = "SECONDS", usage = "Log completed runs, running estimate, confidence interval, throughput and ETA every SECONDS seconds")
+    public double progressInterval = 0;
+
+    @Option(name = "--http-port", usage = "Serve live progress as JSON (/progress) and Prometheus text (/metrics) on this local port")
+    public int httpPort = 0;
+
+    @Option(name = "--jmx", usage = "Expose live progress as the JMX MXBean imsam:type=Progress")
+    public boolean jmx = false;
+
+    @Option(name = "--adapt", usage = "Tune the constant delta predilections by the cross-entropy method on pilot runs, then estimate with the learned values")
+    public boolean adapt = false;
+
+    @Option(name = "--adapt-runs", usage = "Number of pilot runs per cross-entropy iteration")
+    public int adaptRuns = 10000;
+
+    @Option(name = "--adapt-iterations", usage = "Maximum number of cross-entropy iterations")
+    public int adaptIterations = 10;
+
+    @Option(name = "--adapt-tolerance", usage = "Stop iterating once no predilection changes by more than this fraction")
+    public double adaptTolerance = 0.01;
+
+    @Option(name = "--adapt-smoothing", usage = "Weight of the new cross-entropy estimate against the previous predilection, in (0,1]")
+    public double adaptSmoothing = 0.7;
+
+    @Option(name = "--bias-variable", metaVar = "NAME", usage = "With --adapt, learn predilections that depend on the bin of this int variable (state-dependent wSSA)")
+    public String biasVariable = null;
+
+    @Option(name = "--bias-bins", usage = "Number of equal-width bins of --bias-variable over its declared range")
+    public int biasBins = 10;
+
+    @Option(name = "--splitting", usage = "Estimate by fixed-effort multilevel splitting instead of weighted SSA (native engine)")
+    public boolean splitting = false;
+
+    @Option(name = "--importance", metaVar = "NAME", usage = "Importance function for --splitting: a model formula, with --levels thresholds, or labels NAME1, NAME2, ...")
+    public String importanceName = "importance";
+
+    @Option(name = "--levels", metaVar = "THRESHOLDS", usage = "Comma-separated, increasing thresholds of the importance formula")
+    public String levels = "";
+
+    @Option(name = "--effort", usage = "Number of trajectories per splitting level")
+    public int effort = 1000;
+
+    @Option(name = "--replications", usage = "Number of independent splitting runs, for the variance and confidence interval")
+    public int replications = 10;
+
+    @Option(name = "--checkpoint", metaVar = "FILENAME", usage = "Save the estimator state to this file every --checkpoint-interval seconds and at the end, for --resume")
+    public String checkpointFileName = null;
+
+    @Option(name = "--checkpoint-interval", metaVar = "SECONDS", usage = "Seconds between checkpoints")
+    public double checkpointInterval = 300;
+
+    @Option(name = "--resume", usage = "Continue the run saved in the --checkpoint file; with a larger --Nruns or tighter precision this extends a finished run")
+    public boolean resume = false;
+
+    @Option(name = "--shard", metaVar = "I/N", usage = "Simulate shard I (0 to N-1) of a run split over N processes with the same --seed; combine their --json files with merge")
+    public String shard = null;
+
+    // Parsed --shard: path n of this process is path n*numShards+shardIndex of the whole run
+    public int shardIndex = 0;
+    public int numShards  = 1;
 
     public String argsToString() {
 	return String.format("TMAX=%f Nruns=%d modelFile=%s ", TMAX, Nruns, modelFileName);
@@ -92,225 +236,854 @@ public class ExtendedWSSA extends Command {
     // end CLI Arguments
     //////////////////////////////////////////////////
 
-    //	public PrismLog prismLog;
     public Prism prism;
-    public SimulatorEngine sim;
-    public ModelGenerator info;
+    public ModulesFile modulesFile;
+    public ReactionNetwork network;
 
-    private int constraintIndex;
-    private int objectiveIndex;
-    private RandomNumberGenerator rng = new RandomNumberGenerator();
-    private Hashtable<String,Double> predilections = new Hashtable<String,Double>();
+    public Predilections predilections;
+    public BiasTable biasTable;
 
     @Override
-    public int exec() throws IOException, PrismException {
+    public int exec() throws IOException, PrismException, InterruptedException {
 
 	logger.debug("Running Extended WSSA");
 
+	parseShard();
 	loadModel();
 
-	double sum       = 0.0;
-	long   binarySum = 0;
-	double squareSum = 0.0;
+	Checkpoint resumed = resume ? readCheckpoint() : null;
+	long runSeed = (resumed != null) ? resumed.seed : (seed != null) ? seed : System.nanoTime();
+	logger.info("Random seed " + runSeed + ", " + threads + " thread(s)");
+	if (shard != null)
+	    logger.info("Shard " + shardIndex + " of " + numShards);
+	RandomStream.setRootSeed(runSeed);
+
+	if (splitting) {
+	    if (checkpointFileName != null)
+		throw new IllegalArgumentException("--checkpoint only applies to weighted SSA, not --splitting");
+	    return runSplitting(runSeed);
+	}
 
-	List<Double> samples = new ArrayList<>(Nruns);
-	for (int n = 0; n < Nruns; n++) {
-	    double sample = simulate();
-	    sum += sample;
-	    if (sample > 0)
-		binarySum++;
+	if (biasVariable != null && !adapt)
+	    throw new IllegalArgumentException("--bias-variable needs --adapt to learn the predilections of its bins");
+	if (adapt)
+	    adaptPredilections();
+
+	Checkpoint checkpoint = null;
+	if (resumed != null) {
+	    // Checked after --adapt, which learns the same predilections again from the same seed
+	    if (!resumed.fingerprint.equals(checkpointFingerprint()))
+		throw new IllegalArgumentException("Checkpoint " + checkpointFileName + " is of a different run: "
+						   + resumed.fingerprint + ", not " + checkpointFingerprint());
+	    checkpoint = resumed;
+	} else if (checkpointFileName != null) {
+	    checkpoint = new Checkpoint(runSeed, checkpointFingerprint(), new SampleStatistics());
+	}
 
-	    samples.add(sample);
-	    logger.debug("=================");
+	DoubleArrayList retained = (dumpSamples != null) ? new DoubleArrayList() : null;
+	List<PathSampler> workers = createWorkers(runSeed);
+	List<PathRecordWriter> recordWriters = openRecordWriters(workers);
+	long start = System.nanoTime();
+	SampleStatistics stats;
+	try {
+	    if (reportsProgress()) {
+		// A resumed run reports the pooled figures of the whole run
+		ProgressCounters counters = (checkpoint != null) ? new ProgressCounters(checkpoint.stats)
+								 : new ProgressCounters();
+		for (PathSampler worker : workers)
+		    worker.setProgress(counters);
+		try (ProgressReporter reporter = new ProgressReporter(this, counters)) {
+		    reporter.start();
+		    stats = sampleInParallel(workers, retained, checkpoint);
+		}
+	    } else {
+		stats = sampleInParallel(workers, retained, checkpoint);
+	    }
+	    for (PathSampler worker : workers)
+		worker.flushRecorder();
+	} finally {
+	    for (PathRecordWriter writer : recordWriters)
+		writer.close();
 	}
+	RunMetrics metrics = new RunMetrics(stats, workers, (System.nanoTime() - start) / 1e9);
 
 	prism.closeDown();
 
-	double mean = (double) sum / (double) Nruns;
-	double importanceSampleRate = (double) binarySum / Nruns;
+	if (retained != null)
+	    writeSamples(retained, dumpSamples);
+	logger.info(metrics.toString());
+	if (labelCacheSize > 0)
+	    logger.info("Label cache: " + metrics.labelCacheHits + " hits, " + metrics.labelCacheMisses
+			+ " misses (hit rate " + metrics.getLabelCacheHitRate() + ")");
+	if (jsonFileName != null)
+	    writeSummary(runSeed, stats, metrics, jsonFileName);
+
+	double mean = stats.getMean();
+	double variance = stats.getVariance();
+	long binarySum = stats.getNonZeroCount();
+	double importanceSampleRate = stats.getNonZeroRate();
+	logger.info("Sample weights in [" + stats.getMin() + ", " + stats.getMax() + "]");
+
+	if (!isSequential()) {
+	    if (raw) {
+		logger.log(Main.LOG_ALWAYS,
+			   mean + "\t" +
+			   variance + "\t" +
+			   binarySum + "\t" +
+			   importanceSampleRate + "\t" +
+			   argsRawToString() + "\t" +
+			   metrics.toRawString());
+	    } else {
+		logger.log(Main.LOG_ALWAYS,
+			   "Probability to reach final state: " + mean +
+			   ", Variance " + variance +
+			   ", non-zero samples " + binarySum +
+			   ", useful sample rate " + importanceSampleRate +
+			   " " + argsToString());
+	    }
+	} else {
+	    double halfWidth = halfWidth(stats, inverseCNDF(0.5 + confidence / 2));
+	    if (raw) {
+		logger.log(Main.LOG_ALWAYS,
+			   mean + "\t" +
+			   variance + "\t" +
+			   binarySum + "\t" +
+			   importanceSampleRate + "\t" +
+			   (mean - halfWidth) + "\t" +
+			   (mean + halfWidth) + "\t" +
+			   TMAX + "\t" +
+			   stats.getCount() + "\t" +
+			   metrics.toRawString());
+	    } else {
+		logger.log(Main.LOG_ALWAYS,
+			   "Probability to reach final state: " + mean +
+			   ", Variance " + variance +
+			   ", non-zero samples " + binarySum +
+			   ", useful sample rate " + importanceSampleRate +
+			   ", " + (100 * confidence) + "% confidence interval [" +
+			   (mean - halfWidth) + ", " + (mean + halfWidth) + "]" +
+			   " after " + stats.getCount() + " runs " +
+			   String.format("TMAX=%f modelFile=%s ", TMAX, modelFileName));
+	    }
+	}
+
+	return 0;
+
+    }
+
+    /**
+     * Estimates the probability by multilevel splitting (--splitting):
+     * --replications independent runs of SplittingEstimator, whose
+     * estimates are averaged like the weights of the SSA paths
+     */
+    int runSplitting(long runSeed) throws IOException, PrismException, InterruptedException {
+	if (engine != Engine.NATIVE)
+	    throw new IllegalArgumentException("--splitting needs --engine native, whose int[] states are snapshotted at level crossings");
+	if (effort < 1 || replications < 1)
+	    throw new IllegalArgumentException("--effort and --replications must be at least 1");
+
+	double[] thresholds = levels.isBlank() ? new double[0]
+	    : Arrays.stream(levels.split(",")).mapToDouble(level -> Double.parseDouble(level.strip())).toArray();
+	ImportanceFunction importance = ImportanceFunction.compile(modulesFile, importanceName, thresholds);
+	SplittingEstimator estimator = new SplittingEstimator(network, importance, TMAX, effort, threads);
+	logger.info("Splitting with " + estimator.getNumStages() + " stages, " + effort + " trajectories each");
+
+	SampleStatistics stats = new SampleStatistics();
+	SampleStatistics[] stageStats = new SampleStatistics[estimator.getNumStages()];
+	for (int i = 0; i < stageStats.length; i++)
+	    stageStats[i] = new SampleStatistics();
+	ExecutorService pool = Executors.newFixedThreadPool(threads);
+	long start = System.nanoTime();
+	try {
+	    for (int r = 0; r < replications; r++) {
+		double[] probabilities = estimator.replicate(pool, RandomStream.pathSeed(runSeed, (long) r * numShards + shardIndex));
+		double estimate = 1.0;
+		for (int i = 0; i < probabilities.length; i++) {
+		    estimate *= probabilities[i];
+		    stageStats[i].add(probabilities[i]);
+		}
+		stats.add(estimate);
+		logger.info("Replication " + (r + 1) + ": estimate " + estimate
+			    + ", level probabilities " + Arrays.toString(probabilities));
+	    }
+	} finally {
+	    pool.shutdownNow();
+	}
+	double wallSeconds = (System.nanoTime() - start) / 1e9;
+	prism.closeDown();
 
-	for (int n = 0; n < Nruns; n++) {
-	    double squareTerm = (double) samples.get(n) - mean;
-	    squareSum += squareTerm * squareTerm;
+	double[] stageMeans = new double[stageStats.length];
+	for (int i = 0; i < stageStats.length; i++)
+	    stageMeans[i] = stageStats[i].getMean();
+	double mean = stats.getMean();
+	double halfWidth = halfWidth(stats, inverseCNDF(0.5 + confidence / 2));
+	logger.info(estimator.getSteps() + " steps in " + wallSeconds + " s");
+
+	if (jsonFileName != null) {
+	    JSONObject options = new JSONObject();
+	    options.put("model", modelFileName);
+	    options.put("const", constantAssignments());
+	    options.put("Tmax", TMAX);
+	    options.put("seed", runSeed);
+	    options.put("threads", threads);
+	    options.put("importance", importanceName);
+	    options.put("levels", new JSONArray(thresholds));
+	    options.put("effort", effort);
+	    options.put("replications", replications);
+	    if (shard != null)
+		options.put("shard", shardIndex + "/" + numShards);
+	    JSONObject interval = new JSONObject();
+	    interval.put("confidence", confidence);
+	    interval.put("low", RunMetrics.finiteOrNull(mean - halfWidth));
+	    interval.put("high", RunMetrics.finiteOrNull(mean + halfWidth));
+	    JSONObject summary = new JSONObject();
+	    summary.put("options", options);
+	    summary.put("statistics", stats.toJSON());
+	    summary.put("confidenceInterval", interval);
+	    summary.put("levelProbabilities", new JSONArray(stageMeans));
+	    summary.put("steps", estimator.getSteps());
+	    summary.put("wallSeconds", wallSeconds);
+	    Files.writeString(Path.of(jsonFileName), summary.toString(2));
+	    logger.info("Wrote summary to " + jsonFileName);
 	}
-	double variance = squareSum / ((double) Nruns - 1.0);
+
 	if (raw) {
-	    logger.log(Main.LOG_ALWAYS,
-		       mean + "\t" +
-		       variance + "\t" +
-		       binarySum + "\t" +
-		       importanceSampleRate + "\t" +
-		       argsRawToString());
+	    StringBuilder line = new StringBuilder();
+	    line.append(mean).append('\t')
+		.append(stats.getVariance()).append('\t')
+		.append(replications).append('\t')
+		.append(effort).append('\t')
+		.append(TMAX).append('\t')
+		.append(mean - halfWidth).append('\t')
+		.append(mean + halfWidth);
+	    for (double stageMean : stageMeans)
+		line.append('\t').append(stageMean);
+	    logger.log(Main.LOG_ALWAYS, line.toString());
 	} else {
 	    logger.log(Main.LOG_ALWAYS,
 		       "Probability to reach final state: " + mean +
-		       ", Variance " + variance +
-		       ", non-zero samples " + binarySum +
-		       ", useful sample rate " + importanceSampleRate +
-		       " " + argsToString());
+		       ", Variance " + stats.getVariance() +
+		       " over " + replications + " replications of " + effort + " trajectories per level" +
+		       ", " + (100 * confidence) + "% confidence interval [" +
+		       (mean - halfWidth) + ", " + (mean + halfWidth) + "]" +
+		       ", level probabilities " + Arrays.toString(stageMeans) + " " +
+		       String.format("TMAX=%f modelFile=%s ", TMAX, modelFileName));
 	}
-
 	return 0;
+    }
 
+    /**
+     * @return true if sampling continues until a target precision is
+     *         reached (--rel-error, --conf-width) rather than for Nruns runs
+     */
+    public boolean isSequential() {
+	return relError > 0 || confWidth > 0;
     }
 
-    public void loadModel() throws IOException, PrismException, FileNotFoundException {
+    /**
+     * Parses --shard I/N into shardIndex and numShards. All shards must
+     * use the same seed, or they would not be disjoint parts of one run.
+     */
+    void parseShard() {
+	if (shard == null)
+	    return;
+	String[] parts = shard.split("/");
 	try {
-	    // System.out.println("Loading PRISM model from " + params.modelFileName);
+	    if (parts.length != 2)
+		throw new NumberFormatException();
+	    shardIndex = Integer.parseInt(parts[0].strip());
+	    numShards  = Integer.parseInt(parts[1].strip());
+	} catch (NumberFormatException e) {
+	    throw new IllegalArgumentException("--shard \"" + shard + "\" is not of the form I/N");
+	}
+	if (numShards < 1 || shardIndex < 0 || shardIndex >= numShards)
+	    throw new IllegalArgumentException("--shard " + shard + ": need 0 <= I < N");
+	if (seed == null && !resume)
+	    throw new IllegalArgumentException("--shard needs a --seed shared by all shards");
+    }
 
-	    // Create a log for PRISM output (hidden or stdout)
-	    //prismLog = new PrismDevNullLog();
-	    prismStream = new PrintStream("prism.log");
-	    prismLog    = new PrismPrintStreamLog(prismStream);
-	    prismLog.setVerbosityLevel(100);
-	    // Initialize PRISM engine
-		        
-	    prism = new Prism(prismLog);
-	    prism.initialise();
+    /**
+     * @return true if live progress counters are needed (--progress,
+     *         --http-port or --jmx)
+     */
+    boolean reportsProgress() {
+	return progressInterval > 0 || httpPort > 0 || jmx;
+    }
 
-	    // Parse and load a PRISM model from a file
-	    ModulesFile modulesFile = prism.parseModelFile(new File(modelFileName));
-	    prism.loadPRISMModel(modulesFile);
+    /**
+     * Half-width of the normal confidence interval of the mean
+     * @param z standard normal quantile of the confidence level
+     */
+    static double halfWidth(SampleStatistics stats, double z) {
+	return z * Math.sqrt(stats.getVarianceOfMean());
+    }
+
+    /**
+     * Sequential stopping rule: true once the confidence interval meets
+     * every requested criterion. With fewer than MIN_NONZERO_SAMPLES
+     * successful paths the variance estimate is not trusted, since a rare
+     * event that was never observed yields a zero-width interval.
+     */
+    boolean precisionReached(SampleStatistics stats, double z) {
+	if (stats.getNonZeroCount() < MIN_NONZERO_SAMPLES)
+	    return false;
+	double halfWidth = halfWidth(stats, z);
+	if (relError > 0 && halfWidth > relError * stats.getMean())
+	    return false;
+	if (confWidth > 0 && 2 * halfWidth > confWidth)
+	    return false;
+	return true;
+    }
+
+    public static final int MIN_NONZERO_SAMPLES = 10;
+
+    /**
+     * Runs the experiment on a pool of workers, one per thread. Each
+     * worker has its own simulator; path n runs on the random stream
+     * RandomStream.pathSeed(seed, n).
+     * Without a stopping rule this is a single batch of Nruns runs;
+     * otherwise batches are run until precisionReached() or the
+     * --max-runs/--max-time budget is used up.
+     * @param workers  one sampler per thread, see createWorkers()
+     * @param retained if not null, receives all sample weights in run order
+     * @return statistics of all samples
+     */
+    SampleStatistics sampleInParallel(List<PathSampler> workers, DoubleArrayList retained)
+	throws PrismException, InterruptedException {
+	return sampleInParallel(workers, retained, null);
+    }
 
-	    if (modelConstant != "") {
-		String[] cval = modelConstant.split("=");
-		Values v = new Values();
-		String constName = cval[0];
-		Integer constVal = Integer.parseInt(cval[1]);
-		v.addValue(constName, constVal);
-		prism.setPRISMModelConstants(v);
+    /**
+     * Runs the experiment as above, continuing and saving a checkpoint.
+     * The paths already in the checkpoint count towards Nruns, --max-runs
+     * and the stopping rule; --max-time counts from now. A checkpointed
+     * run without a stopping rule is sampled in batches of --batch runs,
+     * so it can be saved in between.
+     * @param checkpoint if not null, its statistics are continued and it
+     *                   is written to --checkpoint every
+     *                   --checkpoint-interval seconds and at the end
+     */
+    SampleStatistics sampleInParallel(List<PathSampler> workers, DoubleArrayList retained, Checkpoint checkpoint)
+	throws PrismException, InterruptedException {
+	if (isSequential() && (confidence <= 0 || confidence >= 1))
+	    throw new IllegalArgumentException("--confidence must be between 0 and 1");
+	if (isSequential() && batchSize < 1)
+	    throw new IllegalArgumentException("--batch must be at least 1");
+
+	ExecutorService pool = Executors.newFixedThreadPool(workers.size());
+	try {
+	    SampleStatistics total = (checkpoint != null) ? checkpoint.stats : new SampleStatistics();
+	    long lastSaved = System.nanoTime();
+	    if (!isSequential()) {
+		long batch = (checkpoint != null) ? batchSize : Nruns;
+		while (total.getCount() < Nruns) {
+		    long runs = Math.min(batch, Nruns - total.getCount());
+		    total.merge(sampleBatch(pool, workers, total.getCount(), runs, retained));
+		    lastSaved = saveCheckpointIfDue(checkpoint, lastSaved);
+		}
+		saveCheckpoint(checkpoint);
+		return total;
 	    }
-	    // Load the model into the simulator
-	    prism.loadModelIntoSimulator();
-	    sim = prism.getSimulator();
-	    info = prism.getModelGenerator();
-			
-	    Values clist = modulesFile.getConstantValues();
-			
-	    for (int i=0; i<clist.getNumValues(); i++) {
-		String cname = clist.getName(i);
-		if (cname.startsWith(new String("delta"))) {
-		    String rname = new String("["+cname.substring(5)+"]");
-		    predilections.put(rname,(Double)clist.getValue(i));
-		    logger.trace("Predilection for " + rname + " = " + (Double)clist.getValue(i));			    }
+
+	    double z = inverseCNDF(0.5 + confidence / 2);
+	    long start = System.nanoTime();
+	    while (!precisionReached(total, z)
+		   && total.getCount() < maxRuns
+		   && (System.nanoTime() - start) / 1e9 < maxTime) {
+		long runs = Math.min(batchSize, maxRuns - total.getCount());
+		total.merge(sampleBatch(pool, workers, total.getCount(), runs, retained));
+		logger.info(total.getCount() + " runs: estimate " + total.getMean()
+			    + " +/- " + halfWidth(total, z));
+		lastSaved = saveCheckpointIfDue(checkpoint, lastSaved);
 	    }
-			
-	    // constraintIndex = info.getLabelIndex("constraint");
-	    // objectiveIndex = info.getLabelIndex("objective");
-	    // logger.trace("Constraint " + constraintIndex + "Objective " +
-	    // objectiveIndex);
-	} catch (FileNotFoundException e) {
-	    throw new IOException("Prism model file not found", e);
+	    saveCheckpoint(checkpoint);
+
+	    if (!precisionReached(total, z))
+		logger.warn("Stopped after " + total.getCount() + " runs without reaching the requested precision");
+	    return total;
+	} finally {
+	    pool.shutdownNow();
+	}
+    }
+
+    /**
+     * Options the samples depend on, which must be the same to --resume a
+     * checkpoint. Nruns and the stopping rule may change.
+     */
+    String checkpointFingerprint() {
+	StringBuilder fingerprint = new StringBuilder();
+	fingerprint.append("model=").append(modelFileName)
+	    .append(" const=").append(constantAssignments())
+	    .append(" Tmax=").append(TMAX)
+	    .append(" engine=").append(engine)
+	    .append(" selector=").append(selector);
+	if (shard != null)
+	    fingerprint.append(" shard=").append(shardIndex).append('/').append(numShards);
+	if (useModulo)
+	    fingerprint.append(" modulo rho=").append(rho)
+		.append(" gamma=").append(gamma)
+		.append(" numModuloSamples=").append(numModuloSamples);
+	fingerprint.append(" predilections=").append(Arrays.toString(predilections.getConstants()));
+	if (biasTable != null)
+	    fingerprint.append(" bias ").append(biasTable.variable)
+		.append('=').append(Arrays.toString(biasTable.getDeltas()));
+	return fingerprint.toString();
+    }
+
+    /**
+     * Reads the --checkpoint file for --resume
+     */
+    Checkpoint readCheckpoint() throws IOException {
+	if (checkpointFileName == null)
+	    throw new IllegalArgumentException("--resume needs the --checkpoint file to continue");
+	if (dumpSamples != null || recordsFileName != null || trajectoriesFileName != null)
+	    throw new IllegalArgumentException("--dump-samples, --records and --trajectories cannot be resumed, the checkpoint holds no samples");
+	Checkpoint checkpoint = Checkpoint.read(Path.of(checkpointFileName));
+	if (seed != null && seed != checkpoint.seed)
+	    throw new IllegalArgumentException("--seed " + seed + " differs from the checkpoint's seed " + checkpoint.seed);
+	logger.info("Resuming " + checkpointFileName + " after " + checkpoint.getNextPath() + " runs: "
+		    + checkpoint.stats);
+	return checkpoint;
+    }
+
+    /**
+     * Saves the checkpoint if --checkpoint-interval seconds have passed
+     * since the last save
+     * @return time of the last save, as System.nanoTime()
+     */
+    long saveCheckpointIfDue(Checkpoint checkpoint, long lastSaved) {
+	if (checkpoint == null || (System.nanoTime() - lastSaved) / 1e9 < checkpointInterval)
+	    return lastSaved;
+	saveCheckpoint(checkpoint);
+	return System.nanoTime();
+    }
+
+    /**
+     * Writes the checkpoint, if any. A failure is logged rather than
+     * thrown, so it does not end a long run.
+     */
+    void saveCheckpoint(Checkpoint checkpoint) {
+	if (checkpoint == null)
+	    return;
+	try {
+	    checkpoint.write(Path.of(checkpointFileName));
+	    logger.info("Saved checkpoint after " + checkpoint.getNextPath() + " runs to " + checkpointFileName);
+	} catch (IOException e) {
+	    logger.error("Could not write checkpoint " + checkpointFileName + ": " + e.getMessage());
 	}
     }
 
-    public boolean indicatorFunction() throws PrismException {
-	// Integer state =
-	// Integer.parseInt(sim.getCurrentState().toStringNoParentheses());
-	if (info.isLabelTrue("objective")) {
-	    logger.trace("Indicator satisfied");
-	    return true;
+    /**
+     * Shards a batch of runs into contiguous blocks, one per worker. Each
+     * worker accumulates its own statistics; these are merged in worker
+     * order. Every path runs on its own random stream, so the samples only
+     * depend on the seed; with more threads only the rounding of the
+     * merged statistics can differ.
+     * @param first number of the first path of the batch within the run
+     * @param runs  number of paths in the batch
+     */
+    SampleStatistics sampleBatch(ExecutorService pool, List<PathSampler> workers, long first, long runs,
+				 DoubleArrayList retained) throws PrismException, InterruptedException {
+	int numWorkers = workers.size();
+	List<SampleStatistics> workerStats    = new ArrayList<>(numWorkers);
+	List<DoubleArrayList>  workerRetained = new ArrayList<>(numWorkers);
+	try {
+	    List<Future<Void>> futures = new ArrayList<>(numWorkers);
+	    for (int w = 0; w < numWorkers; w++) {
+		PathSampler      worker        = workers.get(w);
+		SampleStatistics stats         = new SampleStatistics();
+		DoubleArrayList  workerSamples = (retained != null) ? new DoubleArrayList() : null;
+		long from = first + runs * w / numWorkers;
+		long to   = first + runs * (w + 1) / numWorkers;
+		workerStats.add(stats);
+		workerRetained.add(workerSamples);
+		futures.add(pool.submit(() -> {
+		    worker.sample(from, to, stats, workerSamples);
+		    return null;
+		}));
+	    }
+	    for (Future<Void> future : futures)
+		future.get();
+	} catch (ExecutionException e) {
+	    if (e.getCause() instanceof PrismException)
+		throw (PrismException) e.getCause();
+	    throw new RuntimeException(e.getCause());
 	}
-	else {
-	    logger.trace("Objective NOT reached");
-	    return false;
+
+	SampleStatistics batch = new SampleStatistics();
+	for (int w = 0; w < numWorkers; w++) {
+	    batch.merge(workerStats.get(w));
+	    if (retained != null)
+		retained.addAll(workerRetained.get(w));
 	}
+	return batch;
+    }
+
+    /**
+     * Creates one path sampler per thread, all for the same run seed
+     */
+    List<PathSampler> createWorkers(long runSeed) throws PrismException {
+	if (threads < 1)
+	    throw new IllegalArgumentException("--threads must be at least 1");
+	List<PathSampler> workers = new ArrayList<>(threads);
+	for (int w = 0; w < threads; w++)
+	    workers.add(createSampler(runSeed));
+	return workers;
     }
 
-    public boolean stoppingCondition(double t, double path_probability) throws PrismException {
-	// path_probability currently not used
-	if ((t > TMAX) && !useModulo) {
-	    logger.trace("Path time " + t + " exceeds " + TMAX);
-	    return true;
+    /**
+     * Cross-entropy tuning of the constant predilections (--adapt), or of
+     * the bins of the bias table with --bias-variable. Each iteration
+     * simulates --adapt-runs pilot paths with the current predilections
+     * and moves every predilection observed on successful paths towards
+     * its cross-entropy estimate (see CrossEntropyTally), until no
+     * predilection changes by more than --adapt-tolerance. Formula
+     * predilections are left alone.
+     *
+     * The learned values replace the model's and are printed as PRISM
+     * constants, or formulas over the bias variable. The pilot paths use
+     * their own seeds, drawn from the root stream, and are not part of
+     * the estimate.
+     */
+    void adaptPredilections() throws PrismException, InterruptedException {
+	if (adaptRuns < 1 || adaptIterations < 1)
+	    throw new IllegalArgumentException("--adapt-runs and --adapt-iterations must be at least 1");
+	if (adaptSmoothing <= 0 || adaptSmoothing > 1)
+	    throw new IllegalArgumentException("--adapt-smoothing must be in (0,1]");
+
+	ExtendedWSSA pilot = copy();
+	pilot.Nruns     = adaptRuns;
+	pilot.relError  = 0;
+	pilot.confWidth = 0;
+	// Every shard learns the same predilections from the whole pilot run
+	pilot.shardIndex = 0;
+	pilot.numShards  = 1;
+
+	// One predilection per action, or per bin and action; cell c
+	// belongs to action c % numActions
+	int numActions = predilections.getNumActions();
+	double[] deltas = (biasTable != null) ? biasTable.getDeltas() : predilections.getConstants();
+	int numCells = deltas.length;
+	// Only the ratios of the predilections within a state matter when
+	// all are constant, so the largest of each bin is kept at 1 to
+	// compare iterations
+	if (!predilections.hasFormulas())
+	    normaliseToMax(deltas, numActions);
+	boolean[] tuned = new boolean[numCells];
+
+	for (int iteration = 1; iteration <= adaptIterations; iteration++) {
+	    List<PathSampler> workers = pilot.createWorkers(RandomStream.newStream().nextLong());
+	    List<CrossEntropyTally> tallies = new ArrayList<>(workers.size());
+	    for (PathSampler worker : workers) {
+		CrossEntropyTally tally = new CrossEntropyTally(numCells);
+		worker.setTally(tally);
+		tallies.add(tally);
+	    }
+	    SampleStatistics stats = pilot.sampleInParallel(workers, null);
+	    CrossEntropyTally total = new CrossEntropyTally(numCells);
+	    for (CrossEntropyTally tally : tallies)
+		total.merge(tally);
+
+	    if (total.getSuccesses() == 0) {
+		logger.warn("Adapt iteration " + iteration + ": no successful path in " + adaptRuns
+			    + " pilot runs, predilections unchanged (try more --adapt-runs)");
+		continue;
+	    }
+
+	    double[] next = deltas.clone();
+	    boolean[] updated = new boolean[numCells];
+	    for (int c = 0; c < numCells; c++) {
+		if (predilections.getFormula(c % numActions) != null || !total.isObserved(c))
+		    continue;
+		tuned[c] = updated[c] = true;
+		next[c] = adaptSmoothing * total.estimate(c) + (1 - adaptSmoothing) * deltas[c];
+	    }
+	    applyAdaptFloor(next, deltas, updated, numActions);
+	    if (!predilections.hasFormulas())
+		normaliseToMax(next, numActions);
+	    // Predilections that never fired only sink towards the floor,
+	    // so they are left out of the convergence test
+	    double change = 0;
+	    for (int c = 0; c < numCells; c++)
+		if (updated[c] && total.hasFired(c) && next[c] != deltas[c])
+		    change = Math.max(change, Math.abs(next[c] - deltas[c]) / Math.max(next[c], deltas[c]));
+	    deltas = next;
+	    if (biasTable != null)
+		pilot.biasTable = biasTable.withDeltas(deltas);
+	    else
+		pilot.setPredilections(predilections.withConstants(deltas));
+	    logger.info("Adapt iteration " + iteration + ": estimate " + stats.getMean()
+			+ ", " + total.getSuccesses() + " successful paths, largest change " + change
+			+ ", predilections " + Arrays.toString(deltas));
+	    if (change <= adaptTolerance)
+		break;
 	}
-	if ((t > rho*TMAX) && useModulo) {
-	    logger.trace("Path time " + t + " exceeds " + (rho*TMAX));
-	    return true;
+
+	setPredilections(pilot.predilections);
+	biasTable = pilot.biasTable;
+	for (int a = 0; a < numActions; a++) {
+	    boolean actionTuned = false;
+	    for (int c = a; c < numCells; c += numActions)
+		actionTuned |= tuned[c];
+	    if (!actionTuned)
+		continue;
+	    String action = predilections.getActionString(a);
+	    String name   = Predilections.PREFIX + action.substring(1, action.length() - 1);
+	    if (biasTable != null)
+		logger.log(Main.LOG_ALWAYS, biasTable.toFormula(name, a));
+	    else
+		logger.log(Main.LOG_ALWAYS, "const double " + name + "=" + deltas[a] + ";");
 	}
-	if (indicatorFunction())
-	    return true;
-	else
-	    return false;
     }
 
-    String getTarget(int idx) throws PrismException {
-	return sim.computeTransitionTarget(idx).toStringNoParentheses();
+    /**
+     * Smallest predilection --adapt learns, as a fraction of the largest of
+     * its bin. An action exposed on the pilot paths but never fired there
+     * has a cross-entropy estimate of 0; a predilection of 0 would make its
+     * transitions impossible and the estimate lose every path through them.
+     */
+    static final double ADAPT_FLOOR = 1e-3;
+
+    /**
+     * Raises the updated cells of each bin of numActions cells to at least
+     * ADAPT_FLOOR times the largest predilection of the bin, after the
+     * update if any is positive, otherwise before it
+     */
+    static void applyAdaptFloor(double[] next, double[] previous, boolean[] updated, int numActions) {
+	for (int from = 0; from < next.length; from += numActions) {
+	    double max = 0;
+	    for (int c = from; c < from + numActions; c++)
+		max = Math.max(max, next[c]);
+	    if (max == 0)
+		for (int c = from; c < from + numActions; c++)
+		    max = Math.max(max, previous[c]);
+	    double floor = (max > 0) ? ADAPT_FLOOR * max : 1.0;
+	    for (int c = from; c < from + numActions; c++)
+		if (updated[c])
+		    next[c] = Math.max(next[c], floor);
+	}
     }
 
-    String getState(int idx) {
-	return sim.getCurrentState().toStringNoParentheses();
+    /**
+     * Scales each group of groupSize consecutive values so its largest is 1
+     */
+    private static void normaliseToMax(double[] values, int groupSize) {
+	for (int from = 0; from < values.length; from += groupSize) {
+	    double max = 0;
+	    for (int i = from; i < from + groupSize; i++)
+		max = Math.max(max, values[i]);
+	    if (max > 0)
+		for (int i = from; i < from + groupSize; i++)
+		    values[i] /= max;
+	}
     }
 
-    /* Thomas Prouty contribution, for Senior Project */
-    double moduloWeight(ArrayList<Double> dwellTimes) {
-	int pathLength = dwellTimes.size();
-	double[][] exponentialSamples = new double[pathLength][numModuloSamples];
-	double[][] moduloSamples      = new double[pathLength][numModuloSamples];
-	double[]   pathTimeSamples    = new double[numModuloSamples];
-	double[]   sampleWeight       = new double[numModuloSamples];
-
-	double totalDwellTime = dwellTimes.stream().mapToDouble(Double::doubleValue).sum();
-
-	if (totalDwellTime < TMAX/gamma)
-	    return 1;
-	else if (totalDwellTime > TMAX*gamma)
-	    return 1;
-	
-	logger.trace("Modulo: dwellTimes = " + dwellTimes.toString());
-	
-	Random random = new Random();
-
-	// Generate samples of transition delays along path with same dwell times:
-	for (int i = 0; i < pathLength; i++) {
-	    double dwellTime = dwellTimes.get(i);
-	    if (dwellTime != 0) {
-		for (int j = 0; j < numModuloSamples; j++) {
-		    exponentialSamples[i][j] = dwellTime*(-Math.log(1.0 - random.nextDouble()));
+    /**
+     * Replaces the predilections, recompiling the native network if needed
+     */
+    public void setPredilections(Predilections predilections) throws PrismException {
+	this.predilections = predilections;
+	if (engine == Engine.NATIVE)
+	    network = ReactionNetwork.compile(modulesFile, predilections);
+    }
+
+    /**
+     * Writes the options, estimate and run metrics as a JSON file
+     */
+    void writeSummary(long runSeed, SampleStatistics stats, RunMetrics metrics, String fileName)
+	throws IOException {
+	JSONObject options = new JSONObject();
+	options.put("model", modelFileName);
+	options.put("const", constantAssignments());
+	options.put("Tmax", TMAX);
+	options.put("Nruns", Nruns);
+	options.put("seed", runSeed);
+	options.put("threads", threads);
+	options.put("engine", engine.toString());
+	options.put("selector", selector.toString());
+	options.put("modulo", useModulo);
+	if (useModulo) {
+	    options.put("rho", rho);
+	    options.put("gamma", gamma);
+	    options.put("numModuloSamples", numModuloSamples);
+	}
+	options.put("adapt", adapt);
+	if (biasVariable != null)
+	    options.put("biasVariable", biasVariable);
+	if (shard != null)
+	    options.put("shard", shardIndex + "/" + numShards);
+
+	JSONObject summary = new JSONObject();
+	summary.put("options", options);
+	summary.put("statistics", stats.toJSON());
+	summary.put("metrics", metrics.toJSON());
+	if (adapt) {
+	    JSONObject learned = new JSONObject();
+	    for (int a = 0; a < predilections.getNumActions(); a++) {
+		if (predilections.getFormula(a) != null)
+		    continue;
+		if (biasTable == null) {
+		    learned.put(predilections.getActionString(a), predilections.getConstant(a));
+		} else {
+		    JSONArray bins = new JSONArray();
+		    for (int b = 0; b < biasTable.numBins; b++)
+			bins.put(biasTable.get(b, a));
+		    learned.put(predilections.getActionString(a), bins);
 		}
-	    } else {
-		Arrays.fill(exponentialSamples[i], 0);
 	    }
+	    summary.put("predilections", learned);
+	    if (biasTable != null) {
+		JSONArray binStarts = new JSONArray();
+		for (int b = 0; b < biasTable.numBins; b++)
+		    binStarts.put(biasTable.getBinStart(b));
+		JSONObject bias = new JSONObject();
+		bias.put("variable", biasTable.variable);
+		bias.put("binStarts", binStarts);
+		summary.put("bias", bias);
+	    }
+	}
+	if (isSequential()) {
+	    double halfWidth = halfWidth(stats, inverseCNDF(0.5 + confidence / 2));
+	    JSONObject interval = new JSONObject();
+	    interval.put("confidence", confidence);
+	    interval.put("low", RunMetrics.finiteOrNull(stats.getMean() - halfWidth));
+	    interval.put("high", RunMetrics.finiteOrNull(stats.getMean() + halfWidth));
+	    summary.put("confidenceInterval", interval);
+	}
+	Files.writeString(Path.of(fileName), summary.toString(2));
+	logger.info("Wrote summary to " + fileName);
+    }
+
+    /**
+     * Creates the --records and --trajectories files and gives every
+     * worker a recorder for them
+     * @return the open files, to be closed after sampling
+     */
+    List<PathRecordWriter> openRecordWriters(List<PathSampler> workers) throws IOException {
+	List<PathRecordWriter> writers = new ArrayList<>();
+	if (recordsFileName == null && trajectoriesFileName == null)
+	    return writers;
+	PathRecordWriter records = null;
+	PathRecordWriter trajectories = null;
+	if (recordsFileName != null) {
+	    records = new PathRecordWriter(Path.of(recordsFileName), PathRecordWriter.RECORDS, List.of());
+	    writers.add(records);
 	}
+	if (trajectoriesFileName != null) {
+	    // Native trajectories number the reactions, PRISM ones the actions of Predilections
+	    List<String> actionNames = new ArrayList<>();
+	    if (engine == Engine.NATIVE)
+		actionNames.addAll(Arrays.asList(network.actionStrings));
+	    else
+		for (int a = 0; a < predilections.getNumActions(); a++)
+		    actionNames.add(predilections.getActionString(a));
+	    trajectories = new PathRecordWriter(Path.of(trajectoriesFileName), PathRecordWriter.TRAJECTORIES, actionNames);
+	    writers.add(trajectories);
+	}
+	for (PathSampler worker : workers)
+	    worker.setRecorder(new PathRecorder(records, trajectories));
+	return writers;
+    }
 
-	// Compute the modulo samples and total path times for each path sample:
-	double totalWeight = 0.0;
-	for (int i = 0; i < numModuloSamples; i++) {
-	    pathTimeSamples[i] = 0;
-	    sampleWeight[i]    = 1.0;
-	    for (int j = 0; j < pathLength; j++) {
-		double dwellTime    = dwellTimes.get(j);
-		moduloSamples[j][i] = exponentialSamples[j][i] % TMAX;
-		pathTimeSamples[i] += moduloSamples[j][i];
-		double FX           = 1.0-Math.exp(-TMAX/dwellTime);
-		sampleWeight[i]    *= FX;
-		logger.trace("  dwellTime " + Double.toString(dwellTime) + " sample "
-			     + exponentialSamples[j][i] + " modulo " + TMAX + " = "
-			     + moduloSamples[j][i] + " FX " + FX);
-	    }
-	    if (pathTimeSamples[i] < TMAX)
-		totalWeight += sampleWeight[i];
+    /**
+     * Writes sample weights to a text file, one per line
+     */
+    void writeSamples(DoubleArrayList samples, String fileName) throws IOException {
+	try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Path.of(fileName)))) {
+	    for (int n = 0; n < samples.size(); n++)
+		out.println(samples.get(n));
 	}
+	logger.info("Wrote " + samples.size() + " samples to " + fileName);
+    }
+
+    /**
+     * Creates a path sampler for the selected engine. loadModel() must
+     * have been called first.
+     * @param samplerSeed seed of the run
+     */
+    public PathSampler createSampler(long samplerSeed) throws PrismException {
+	if (engine == Engine.NATIVE)
+	    return new NativePathSampler(this, network, samplerSeed);
+	else
+	    return new PrismPathSampler(this, prism, modulesFile, predilections, samplerSeed);
+    }
+
+    public void loadModel() throws IOException, PrismException, FileNotFoundException {
+	try {
+	    // System.out.println("Loading PRISM model from " + params.modelFileName);
+
+	    // An already initialised PRISM engine may be provided (e.g. by
+	    // tests loading several models in one JVM)
+	    if (prism == null) {
+		// Create a log for PRISM output (hidden or stdout)
+		//prismLog = new PrismDevNullLog();
+		prismStream = new PrintStream("prism.log");
+		prismLog    = new PrismPrintStreamLog(prismStream);
+		prismLog.setVerbosityLevel(100);
+		// Initialize PRISM engine
+
+		prism = new Prism(prismLog);
+		prism.initialise();
+	    }
+
+	    // Parse and load a PRISM model from a file
+	    modulesFile = prism.parseModelFile(new File(modelFileName));
 
+	    // Set all --const values in one go, with the declared types; this
+	    // may also override constants defined in the model file
+	    if (!modelConstants.isEmpty())
+		modulesFile = ModelConstants.apply(modulesFile, ModelConstants.parse(constantAssignments()));
+	    prism.loadPRISMModel(modulesFile);
+	    if (modulesFile.getUndefinedConstantValues() != null)
+		prism.setPRISMModelConstants(modulesFile.getUndefinedConstantValues());
 
-	return totalWeight/numModuloSamples;
+	    compileModel();
+	} catch (FileNotFoundException e) {
+	    throw new IOException("Prism model file not found", e);
+	}
     }
 
-    int makeTransition(double modified_total_rate, int numTransitions, List<Double> transitionRates)
-	throws PrismException {
-	////////////////////////////////////////////////////
-	// Execute the transition:
-	////////////////////////////////////////////////////
-	double x = rng.randomUnifDouble(modified_total_rate);
-
-	double tot = 0.0;
-	int offset = 0;
-	for (offset = 0; x >= tot && offset < numTransitions; offset++) {
-	    tot += (double) transitionRates.get(offset);
+    /**
+     * @return the --const assignments, one "name=value" per element
+     */
+    List<String> constantAssignments() {
+	List<String> assignments = new ArrayList<>();
+	for (String option : modelConstants)
+	    for (String assignment : option.split(","))
+		if (!assignment.isBlank())
+		    assignments.add(assignment.strip());
+	return assignments;
+    }
+
+    /**
+     * Resolves what the samplers need from modulesFile, once all of its
+     * constants are defined: the delta* predilections, indexed by action,
+     * the bias table with --bias-variable, and for the native engine the
+     * compiled reaction network
+     */
+    public void compileModel() throws PrismException {
+	setPredilections(Predilections.fromModel(modulesFile));
+	if (biasVariable != null) {
+	    int varIndex = modulesFile.getVarIndex(biasVariable);
+	    if (varIndex < 0 || !(modulesFile.getVarType(varIndex) instanceof TypeInt))
+		throw new PrismLangException("Bias variable " + biasVariable + " is not an int variable of the model");
+	    VarList varList = modulesFile.createVarList();
+	    biasTable = BiasTable.uniform(biasVariable, varIndex, varList.getLow(varIndex), varList.getHigh(varIndex),
+					  Math.min(biasBins, varList.getHigh(varIndex) - varList.getLow(varIndex) + 1),
+					  predilections.getConstants());
 	}
-	offset--;
+    }
 
-	sim.manualTransition(offset);
-	return offset;
+    /**
+     * @return shallow copy of these options and the loaded model, e.g. to
+     *         run another parameter point on the same parsed model
+     */
+    public ExtendedWSSA copy() {
+	try {
+	    return (ExtendedWSSA) super.clone();
+	} catch (CloneNotSupportedException e) {
+	    throw new AssertionError(e);
+	}
     }
 
     /**
@@ -331,140 +1104,40 @@ public class ExtendedWSSA extends Command {
     }
 
     /**
-     * ABSTRACT generalization:
-     * 1. initialize the path, then step time
-     * 2. loop over all transitions from current state, check constraint
-     * 3. zero-out transitions that violate the constraint
-     * 4. check stopping conditions
-     * 
-     * @return Path probability
-     * @throws PrismException
+     * Returns the inverse of the standard normal CDF, i.e. the quantile
+     * x with CNDF(x) = p, using Acklam's rational approximation
+     * (relative error below 1.15e-9)
      */
-    public double simulate() throws PrismException {
-	sim.createNewPath();
-	sim.initialisePath(null);
-
-	double path_probability     = 1.0;
-	double modified_probability = 1.0;
-	double total_rate           = 0.0;
-	double modified_total_rate  = 0.0;
-
-	int step      = 0;
-
-	double mu     = 0;
-	double sigma2 = 0;
-
-	ArrayList<Double> dwellTimes = new ArrayList<>();	
-	double simTime = 0.0;
-	
-	// Simulate a path step-by-step:
-	do {
-	    // Initialize variables:
-	    total_rate          = 0.0;
-	    modified_total_rate = 0.0;
-
-	    // Loop through the possible transitions from the current state:
-	    Integer      numTransitions  = sim.getNumTransitions();
-	    List<Double> transitionRates = new ArrayList<>(numTransitions);
-	    List<Double> nativeRates     = new ArrayList<>(numTransitions);
-
-
-	    if (numTransitions > 0) {
-		// ++++++++++++++++++++++++++++++++++++++++++++++++++++
-		// Adjust Transition Rates
-		// ++++++++++++++++++++++++++++++++++++++++++++++++++++
-		
-		for (int idx = 0; idx < numTransitions; idx++) {
-		    // Get target state of the indexed transition:
-		    String transitionTarget = getTarget(idx);
-		    
-
-		    // Explore transition and verify the user constraint:
-		    sim.manualTransition(idx);
-		    
-		    Boolean constraintSatisfied = info.isLabelTrue("constraint");
-		    sim.backtrackTo(step);
-
-		    // If satisfied, keep this transition and apply wSSA weights:
-		    if (constraintSatisfied) {
-			double r = sim.getTransitionProbability(idx);
-			String s = sim.getTransitionActionString(idx);
-			logger.trace("Action string " + s);
-			if (s != null) {
-			    
-			    Double delta = (Double) predilections.get(s);
-			    if ( delta != null ) {
-				logger.trace("Applying delta " + delta.toString() + " to " + s);
-				if (delta != null) {
-				    r = r * delta;				
-				}
-			    }
-			}
-			transitionRates.add(r);
-		    } else {
-			// If constraint is violated in target state, suppress this edge:
-			transitionRates.add(0.0);
-		    }
-
-		    // Accumulate native and modified transition rates:
-		    nativeRates.add(sim.getTransitionProbability(idx));
-		    total_rate += (double) sim.getTransitionProbability(idx);
-		    modified_total_rate += (double) transitionRates.get(idx);		    
-		}
-		// ++++++++++++++++++++++++++++++++++++++++++++++++++++
-
-		// Add dwell time for this state:
-		dwellTimes.add(1.0 / total_rate);
-
-		int offset = makeTransition(modified_total_rate, numTransitions, transitionRates);
-		step++;
-
-		logger.trace(sim.getCurrentState().toString() + "\t" + Double.toString(sim.getTotalTimeForPath()));
-
-		// Accumulate path probability:
-		mu     += 1.0 / nativeRates.get(offset);
-		sigma2 += mu * mu;
-
-		double p_transition   = (double) nativeRates.get(offset) / total_rate;
-		path_probability     *= p_transition;
-		double p_modified     = (double) transitionRates.get(offset) / modified_total_rate;
-		modified_probability *= p_modified;
-
-		String transitionTarget = sim.getCurrentState().toStringNoParentheses();
-		
-	    }
-	    else {
-		if (indicatorFunction()) {
-		    double mWeight = 1.0;
-		    if (useModulo) 
-			mWeight = moduloWeight(dwellTimes);
-		    else if (sim.getTotalTimeForPath() > TMAX)
-			mWeight = 0.0;
-		    logger.trace("Sample path returning " + Double.toString(mWeight * path_probability / modified_probability));
-		    return mWeight * path_probability / modified_probability;
-		} else {
-		    logger.trace("Sample path returning 0"); 
-		    return 0;		    
-		}
-	    }
-
-	    if (useModulo)
-		simTime = dwellTimes.stream().mapToDouble(Double::doubleValue).sum();
-	    else
-		simTime = sim.getTotalTimeForPath();
-	} while (!stoppingCondition(sim.getTotalTimeForPath(), path_probability));
-    
-	if (indicatorFunction()) {
-	    double mWeight = 1.0;
-	    if (useModulo) 
-		mWeight = moduloWeight(dwellTimes);
-	    else if (sim.getTotalTimeForPath() > TMAX)
-		mWeight = 0.0;
-	    logger.trace("Sample path returning " + Double.toString(mWeight * path_probability / modified_probability));
-	    return mWeight * path_probability / modified_probability;
-	} else {
-	    logger.trace("Sample path returning 0"); 
-	    return 0;
+    public static double inverseCNDF(double p) {
+	if (p <= 0 || p >= 1)
+	    throw new IllegalArgumentException("Probability " + p + " out of range (0,1)");
+
+	final double[] a = { -3.969683028665376e+01,  2.209460984245205e+02,
+			     -2.759285104469687e+02,  1.383577518672690e+02,
+			     -3.066479806614716e+01,  2.506628277459239e+00 };
+	final double[] b = { -5.447609879822406e+01,  1.615858368580409e+02,
+			     -1.556989798598866e+02,  6.680131188771972e+01,
+			     -1.328068155288572e+01 };
+	final double[] c = { -7.784894002430293e-03, -3.223964580411365e-01,
+			     -2.400758277161838e+00, -2.549732539343734e+00,
+			      4.374664141464968e+00,  2.938163982698783e+00 };
+	final double[] d = {  7.784695709041462e-03,  3.224671290700398e-01,
+			      2.445134137142996e+00,  3.754408661907416e+00 };
+	final double pLow = 0.02425;
+
+	if (p < pLow) {
+	    double q = Math.sqrt(-2 * Math.log(p));
+	    return (((((c[0]*q + c[1])*q + c[2])*q + c[3])*q + c[4])*q + c[5]) /
+		((((d[0]*q + d[1])*q + d[2])*q + d[3])*q + 1);
+	}
+	if (p > 1 - pLow) {
+	    double q = Math.sqrt(-2 * Math.log(1 - p));
+	    return -(((((c[0]*q + c[1])*q + c[2])*q + c[3])*q + c[4])*q + c[5]) /
+		((((d[0]*q + d[1])*q + d[2])*q + d[3])*q + 1);
 	}
+	double q = p - 0.5;
+	double r = q * q;
+	return (((((a[0]*r + a[1])*r + a[2])*r + a[3])*r + a[4])*r + a[5]) * q /
+	    (((((b[0]*r + b[1])*r + b[2])*r + b[3])*r + b[4])*r + 1);
     }
 }
@@ -39,6 +39,9 @@ public class Main extends Command {
     @Argument(required=true,index=0,metaVar="command",usage="subcommand (use --help option with subcommand for more information)",handler=SubCommandHandler.class)
     @SubCommands({
         @SubCommand(name="simulate",impl=ExtendedWSSA.class),
+        @SubCommand(name="sweep",impl=Sweep.class),
+        @SubCommand(name="merge",impl=Merge.class),
+        @SubCommand(name="records",impl=Records.class),
     })
     protected Command command;
 
@@ -0,0 +1,222 @@
+package imsam;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+
+import imsam.simulation.RunMetrics;
+import imsam.simulation.SampleStatistics;
+
+/**
+ * Pools the results of independent simulate runs, typically the shards
+ * of one run (--shard I/N on N processes with the same --seed), from
+ * their --json summaries.
+ *
+ * The statistics are combined with SampleStatistics.merge(), so the
+ * pooled mean and variance are those of all samples together; for the N
+ * shards of a run they equal those of the unsharded run up to rounding.
+ * Runs with different seeds are independent and may be pooled as well,
+ * but a shard must not be counted twice, and all runs must estimate the
+ * same thing with the same heuristics: every option of the summaries
+ * except RUN_OPTIONS must agree, i.e. model, constants, Tmax, engine,
+ * transition selector, modulo settings (rho, gamma, numModuloSamples)
+ * and adaptation.
+ *
+ * Shard I/N of a seed simulates paths pathSeed(seed, n*N+I), so runs of
+ * one seed only have disjoint random streams if they split it into the
+ * same number of shards N (an unsharded run counting as 0/1).
+ */
+public class Merge extends Command {
+
+    final static Logger logger = Main.getLogger(Merge.class);
+
+    /**
+     * Options of a summary that may differ between the pooled runs
+     */
+    static final Set<String> RUN_OPTIONS = Set.of("seed", "shard", "threads", "Nruns", "replications");
+
+    @Argument(metaVar = "FILENAME", required = true, multiValued = true, usage = "--json summaries of the runs to pool")
+    public List<String> fileNames = new ArrayList<>();
+
+    @Option(name = "--json", metaVar = "FILENAME", usage = "Write the pooled estimate to a JSON file")
+    public String jsonFileName = null;
+
+    @Option(name = "--confidence", usage = "Confidence level of the pooled confidence interval")
+    public double confidence = 0.95;
+
+    @Option(name = "--raw", usage = "Print raw output values")
+    public boolean raw = false;
+
+    @Override
+    public int exec() throws IOException {
+        if (confidence <= 0 || confidence >= 1) {
+            throw new IllegalArgumentException("--confidence must be between 0 and 1");
+        }
+        List<JSONObject> summaries = new ArrayList<>(fileNames.size());
+        for (String fileName : fileNames) {
+            summaries.add(new JSONObject(Files.readString(Path.of(fileName))));
+        }
+        JSONObject pooled = merge(summaries, fileNames);
+        SampleStatistics stats = readStatistics(pooled);
+        double halfWidth = ExtendedWSSA.halfWidth(stats, ExtendedWSSA.inverseCNDF(0.5 + confidence / 2));
+        JSONObject interval = new JSONObject();
+        interval.put("confidence", confidence);
+        interval.put("low", RunMetrics.finiteOrNull(stats.getMean() - halfWidth));
+        interval.put("high", RunMetrics.finiteOrNull(stats.getMean() + halfWidth));
+        pooled.put("confidenceInterval", interval);
+
+        if (jsonFileName != null) {
+            Files.writeString(Path.of(jsonFileName), pooled.toString(2));
+            logger.info("Wrote pooled summary to " + jsonFileName);
+        }
+
+        JSONObject metrics = pooled.getJSONObject("metrics");
+        if (raw) {
+            logger.log(Main.LOG_ALWAYS,
+                       stats.getMean() + "\t" +
+                       stats.getVariance() + "\t" +
+                       stats.getNonZeroCount() + "\t" +
+                       stats.getNonZeroRate() + "\t" +
+                       (stats.getMean() - halfWidth) + "\t" +
+                       (stats.getMean() + halfWidth) + "\t" +
+                       stats.getCount() + "\t" +
+                       summaries.size() + "\t" +
+                       metrics.getLong("steps") + "\t" +
+                       metrics.getDouble("wallSeconds") + "\t" +
+                       metrics.getDouble("workerSeconds"));
+        } else {
+            logger.log(Main.LOG_ALWAYS,
+                       "Probability to reach final state: " + stats.getMean() +
+                       ", Variance " + stats.getVariance() +
+                       ", non-zero samples " + stats.getNonZeroCount() +
+                       ", useful sample rate " + stats.getNonZeroRate() +
+                       ", " + (100 * confidence) + "% confidence interval [" +
+                       (stats.getMean() - halfWidth) + ", " + (stats.getMean() + halfWidth) + "]" +
+                       " after " + stats.getCount() + " runs from " + summaries.size() + " files");
+        }
+        return 0;
+    }
+
+    /**
+     * Pools run summaries
+     * @param summaries --json summaries of simulate runs
+     * @param names     their file names, for error messages
+     * @return summary of the pooled run: the common options, the merged
+     *         statistics, and metrics with the summed paths, steps and
+     *         worker-seconds and the longest wall time
+     * @throws IllegalArgumentException if the runs estimate different
+     *         things or a shard appears twice
+     */
+    static JSONObject merge(List<JSONObject> summaries, List<String> names) {
+        JSONObject common = commonOptions(summaries.get(0).getJSONObject("options"));
+        Set<String> runs = new HashSet<>();
+        Map<String, Integer> shardsOfSeed = new HashMap<>();
+        Set<Integer> shards = new HashSet<>();
+        int numShards = 0;
+        SampleStatistics stats = new SampleStatistics();
+        long   paths = 0;
+        long   steps = 0;
+        double wallSeconds   = 0;
+        double workerSeconds = 0;
+
+        for (int i = 0; i < summaries.size(); i++) {
+            JSONObject summary = summaries.get(i);
+            JSONObject options = summary.getJSONObject("options");
+            if (!commonOptions(options).similar(common)) {
+                throw new IllegalArgumentException(names.get(i) + " is a run of " + commonOptions(options)
+                        + ", not of " + common);
+            }
+            String seed  = options.get("seed").toString();
+            String shard = options.optString("shard", "");
+            int shardIndex = 0;
+            int shardCount = 1;
+            if (!shard.isEmpty()) {
+                String[] parts = shard.split("/");
+                shardIndex = Integer.parseInt(parts[0]);
+                shardCount = Integer.parseInt(parts[1]);
+                shards.add(shardIndex);
+                numShards = Math.max(numShards, shardCount);
+            }
+            // Shards of one seed with different N share random streams
+            Integer seedShards = shardsOfSeed.putIfAbsent(seed, shardCount);
+            if (seedShards != null && seedShards != shardCount) {
+                throw new IllegalArgumentException(names.get(i) + " splits seed " + seed + " into " + shardCount
+                        + " shard(s), another run into " + seedShards + "; their paths overlap");
+            }
+            if (!runs.add(seed + " " + shardIndex)) {
+                throw new IllegalArgumentException(names.get(i) + " repeats seed " + seed
+                        + (shard.isEmpty() ? "" : " shard " + shard));
+            }
+
+            SampleStatistics runStats = readStatistics(summary);
+            stats.merge(runStats);
+            JSONObject metrics = summary.optJSONObject("metrics");
+            if (metrics != null) {
+                paths         += metrics.getLong("paths");
+                steps         += metrics.getLong("steps");
+                wallSeconds    = Math.max(wallSeconds, metrics.getDouble("wallSeconds"));
+                workerSeconds += metrics.getInt("threads") * metrics.getDouble("wallSeconds");
+            } else {
+                // Splitting summaries have no per-path metrics
+                paths         += runStats.getCount();
+                steps         += summary.optLong("steps");
+                wallSeconds    = Math.max(wallSeconds, summary.optDouble("wallSeconds", 0));
+                workerSeconds += options.optInt("threads", 1) * summary.optDouble("wallSeconds", 0);
+            }
+        }
+        if (numShards > 0 && shards.size() < numShards) {
+            logger.warn("Only " + shards.size() + " of " + numShards + " shards pooled; "
+                    + "the estimate is valid but has fewer runs than planned");
+        }
+
+        JSONObject metrics = new JSONObject();
+        metrics.put("files", summaries.size());
+        metrics.put("paths", paths);
+        metrics.put("steps", steps);
+        metrics.put("wallSeconds", wallSeconds);
+        metrics.put("workerSeconds", workerSeconds);
+        metrics.put("pathsPerSecond", RunMetrics.finiteOrNull(paths / wallSeconds));
+        metrics.put("relativeVariance",
+                    RunMetrics.finiteOrNull(stats.getVariance() / (stats.getMean() * stats.getMean())));
+
+        JSONObject pooled = new JSONObject();
+        pooled.put("options", common);
+        pooled.put("statistics", stats.toJSON());
+        pooled.put("metrics", metrics);
+        return pooled;
+    }
+
+    /**
+     * @return the options of a summary that all pooled runs must share
+     */
+    static JSONObject commonOptions(JSONObject options) {
+        JSONObject common = new JSONObject();
+        for (String key : options.keySet()) {
+            if (!RUN_OPTIONS.contains(key)) {
+                common.put(key, options.get(key));
+            }
+        }
+        return common;
+    }
+
+    static SampleStatistics readStatistics(JSONObject summary) {
+        JSONObject json = summary.getJSONObject("statistics");
+        if (json.getLong("count") == 0) {
+            return new SampleStatistics();
+        }
+        return new SampleStatistics(json.getLong("count"), json.getDouble("mean"), json.getDouble("m2"),
+                                    json.getLong("nonZeroCount"), json.getDouble("min"), json.getDouble("max"));
+    }
+
+}
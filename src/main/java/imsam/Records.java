@@ -0,0 +1,66 @@
+package imsam;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.Array;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.kohsuke.args4j.Argument;
+
+import imsam.simulation.PathRecordReader;
+import imsam.simulation.PathRecordWriter;
+
+/**
+ * Prints a --records or --trajectories file of simulate as tab-separated
+ * text on standard output, for tools that do not read the binary format:
+ * one row per path with the columns of the records, or one row per
+ * transition (path, step, time, action) of the trajectories.
+ */
+public class Records extends Command {
+
+    @Argument(metaVar = "FILENAME", required = true, usage = "--records or --trajectories file")
+    public String fileName;
+
+    @Override
+    public int exec() throws IOException {
+        try (PathRecordReader reader = new PathRecordReader(Path.of(fileName));
+             PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16))) {
+            if (reader.kind == PathRecordWriter.RECORDS) {
+                printRecords(reader, out);
+            } else {
+                printTrajectories(reader, out);
+            }
+        }
+        return 0;
+    }
+
+    static void printRecords(PathRecordReader reader, PrintWriter out) throws IOException {
+        out.println("#" + String.join("\t", reader.getNames()));
+        for (Object[] block; (block = reader.nextRecords()) != null; ) {
+            int count = Array.getLength(block[0]);
+            for (int i = 0; i < count; i++) {
+                for (int c = 0; c < block.length; c++) {
+                    if (c > 0) {
+                        out.print('\t');
+                    }
+                    out.print(Array.get(block[c], i));
+                }
+                out.println();
+            }
+        }
+    }
+
+    static void printTrajectories(PathRecordReader reader, PrintWriter out) throws IOException {
+        List<String> actions = reader.getNames();
+        out.println("#path\tstep\ttime\taction");
+        for (PathRecordReader.Trajectory path; (path = reader.nextTrajectory()) != null; ) {
+            for (int i = 0; i < path.times.length; i++) {
+                out.println(path.path + "\t" + (i + 1) + "\t" + path.times[i] + "\t" + actions.get(path.actions[i]));
+            }
+        }
+    }
+
+}
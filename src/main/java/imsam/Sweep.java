@@ -0,0 +1,279 @@
+package imsam;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.logging.log4j.Logger;
+import org.kohsuke.args4j.Option;
+
+import prism.PrismException;
+
+import imsam.probability.RandomStream;
+import imsam.simulation.ModelConstants;
+import imsam.simulation.PathSampler;
+import imsam.simulation.RunMetrics;
+import imsam.simulation.SampleStatistics;
+
+/**
+ * Runs the ExtendedWSSA experiment for a list or grid of parameter
+ * points, writing one result row per point.
+ *
+ * The model is parsed and PRISM initialised once; every point gets a copy
+ * of the parsed model with its constants set (see ModelConstants) and its
+ * own set of samplers. The simulate options apply to every point, and
+ * every point uses the same seed, so nearby points are compared on common
+ * random numbers. Options of a single run (sharding, adaptation,
+ * splitting, checkpoints, per-run output and progress reporting) are
+ * rejected.
+ */
+public class Sweep extends ExtendedWSSA {
+
+    final static Logger logger = Main.getLogger(Sweep.class);
+
+    /**
+     * Pseudo-constant of a point that sets --Tmax instead of a model constant
+     */
+    public static final String TMAX_NAME = "Tmax";
+
+    @Option(name = "--grid", metaVar = "NAME=VALUES", usage = "Sweep a constant (or Tmax) over comma-separated values or a from:to:step range; repeat for a grid over all combinations")
+    public List<String> grid = new ArrayList<>();
+
+    @Option(name = "--points", metaVar = "FILENAME", usage = "Read the points from a file instead, one per line as space-separated name=value assignments")
+    public String pointsFileName = null;
+
+    @Option(name = "--parallel-points", usage = "Number of points simulated at the same time, each with --threads workers")
+    public int parallelPoints = 1;
+
+    @Option(name = "--out", metaVar = "FILENAME", usage = "Write the result rows to a tab-separated file instead of the console")
+    public String outFileName = null;
+
+    @Override
+    public int exec() throws IOException, PrismException, InterruptedException {
+        if (parallelPoints < 1) {
+            throw new IllegalArgumentException("--parallel-points must be at least 1");
+        }
+        rejectSimulateOnlyOptions();
+        List<Map<String, String>> points = (pointsFileName != null) ? readPoints(pointsFileName) : gridPoints(grid);
+        if (points.isEmpty()) {
+            throw new IllegalArgumentException("No points to sweep: give --grid or --points");
+        }
+        List<String> names = new ArrayList<>();
+        for (Map<String, String> point : points) {
+            for (String name : point.keySet()) {
+                if (!names.contains(name)) {
+                    names.add(name);
+                }
+            }
+        }
+
+        loadModel();
+
+        long runSeed = (seed != null) ? seed : System.nanoTime();
+        logger.info("Sweeping " + points.size() + " points, random seed " + runSeed + ", "
+                + parallelPoints + " point(s) at a time with " + threads + " thread(s) each");
+        RandomStream.setRootSeed(runSeed);
+
+        ExecutorService pool = Executors.newFixedThreadPool(parallelPoints);
+        try (PrintWriter out = (outFileName != null) ? new PrintWriter(Files.newBufferedWriter(Path.of(outFileName))) : null) {
+            List<Future<String>> rows = new ArrayList<>(points.size());
+            for (Map<String, String> point : points) {
+                rows.add(pool.submit(() -> runPoint(point, names, runSeed)));
+            }
+            writeRow(out, "#" + String.join("\t", names)
+                    + "\tmean\tvariance\tnonZero\tusefulRate\truns\tlow\thigh\tseconds\tpathsPerSecond");
+            for (Future<String> row : rows) {
+                writeRow(out, row.get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof PrismException) {
+                throw (PrismException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+            prism.closeDown();
+        }
+        return 0;
+    }
+
+    /**
+     * Fails on the simulate options that runPoint does not apply, rather
+     * than ignoring them for every point
+     */
+    void rejectSimulateOnlyOptions() {
+        List<String> given = new ArrayList<>();
+        if (shard != null) {
+            given.add("--shard");
+        }
+        if (adapt) {
+            given.add("--adapt");
+        }
+        if (biasVariable != null) {
+            given.add("--bias-variable");
+        }
+        if (splitting) {
+            given.add("--splitting");
+        }
+        if (checkpointFileName != null) {
+            given.add("--checkpoint");
+        }
+        if (resume) {
+            given.add("--resume");
+        }
+        if (recordsFileName != null) {
+            given.add("--records");
+        }
+        if (trajectoriesFileName != null) {
+            given.add("--trajectories");
+        }
+        if (dumpSamples != null) {
+            given.add("--dump-samples");
+        }
+        if (jsonFileName != null) {
+            given.add("--json");
+        }
+        if (reportsProgress()) {
+            given.add("--progress, --http-port or --jmx");
+        }
+        if (!given.isEmpty()) {
+            throw new IllegalArgumentException(String.join(", ", given) + " only apply to simulate, not to sweep");
+        }
+    }
+
+    private static void writeRow(PrintWriter out, String row) {
+        if (out != null) {
+            out.println(row);
+        } else {
+            logger.log(Main.LOG_ALWAYS, row);
+        }
+    }
+
+    /**
+     * Simulates one point on a copy of the loaded model
+     * @param point constant values of the point (and possibly Tmax)
+     * @param names columns of the result rows
+     * @return result row: the value of every column, then the estimate,
+     *         its confidence interval and the throughput
+     */
+    String runPoint(Map<String, String> point, List<String> names, long runSeed)
+            throws PrismException, InterruptedException {
+        ExtendedWSSA config = copy();
+        Map<String, String> constants = new LinkedHashMap<>(point);
+        String tmax = constants.remove(TMAX_NAME);
+        if (tmax != null) {
+            config.TMAX = Double.parseDouble(tmax);
+        }
+        // Copying the shared parsed model is not guaranteed to be thread safe
+        synchronized (this) {
+            config.modulesFile = ModelConstants.apply(modulesFile, constants);
+            config.compileModel();
+        }
+
+        List<PathSampler> workers = config.createWorkers(runSeed);
+        long start = System.nanoTime();
+        SampleStatistics stats = config.sampleInParallel(workers, null);
+        RunMetrics metrics = new RunMetrics(stats, workers, (System.nanoTime() - start) / 1e9);
+        double halfWidth = halfWidth(stats, inverseCNDF(0.5 + confidence / 2));
+        logger.info(point + ": " + metrics);
+
+        StringBuilder row = new StringBuilder();
+        for (String name : names) {
+            if (name.equals(TMAX_NAME)) {
+                row.append(config.TMAX);
+            } else {
+                row.append(config.modulesFile.getConstantValues().getValueOf(name));
+            }
+            row.append('\t');
+        }
+        row.append(stats.getMean()).append('\t')
+           .append(stats.getVariance()).append('\t')
+           .append(stats.getNonZeroCount()).append('\t')
+           .append(stats.getNonZeroRate()).append('\t')
+           .append(stats.getCount()).append('\t')
+           .append(stats.getMean() - halfWidth).append('\t')
+           .append(stats.getMean() + halfWidth).append('\t')
+           .append(metrics.wallSeconds).append('\t')
+           .append(metrics.getPathsPerSecond());
+        return row.toString();
+    }
+
+    /**
+     * Reads points, one per line as space-separated name=value
+     * assignments; blank lines and lines starting with # are skipped
+     */
+    static List<Map<String, String>> readPoints(String fileName) throws IOException {
+        List<Map<String, String>> points = new ArrayList<>();
+        for (String line : Files.readAllLines(Path.of(fileName))) {
+            line = line.strip();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                points.add(ModelConstants.parse(List.of(line.split("\\s+"))));
+            }
+        }
+        return points;
+    }
+
+    /**
+     * All combinations of the --grid axes, the last axis varying fastest
+     * @param axes "name=values" strings, see parseValues()
+     */
+    static List<Map<String, String>> gridPoints(List<String> axes) {
+        List<Map<String, String>> points = new ArrayList<>();
+        if (axes.isEmpty()) {
+            return points;
+        }
+        points.add(new LinkedHashMap<>());
+        for (Map.Entry<String, String> axis : ModelConstants.parse(axes).entrySet()) {
+            List<Map<String, String>> extended = new ArrayList<>();
+            for (Map<String, String> point : points) {
+                for (String value : parseValues(axis.getValue())) {
+                    Map<String, String> next = new LinkedHashMap<>(point);
+                    next.put(axis.getKey(), value);
+                    extended.add(next);
+                }
+            }
+            points = extended;
+        }
+        return points;
+    }
+
+    /**
+     * Values of a grid axis: either comma-separated values, or an
+     * inclusive range from:to:step
+     */
+    static List<String> parseValues(String values) {
+        List<String> list = new ArrayList<>();
+        String[] range = values.split(":");
+        if (range.length == 1) {
+            for (String value : values.split(",")) {
+                list.add(value.strip());
+            }
+            return list;
+        }
+        if (range.length != 3) {
+            throw new IllegalArgumentException("Range \"" + values + "\" is not of the form from:to:step");
+        }
+        // Decimal arithmetic, so 0.1:0.3:0.1 gives 0.3 rather than 0.30000000000000004
+        BigDecimal from = new BigDecimal(range[0].strip());
+        BigDecimal to   = new BigDecimal(range[1].strip());
+        BigDecimal step = new BigDecimal(range[2].strip());
+        if (step.signum() <= 0 || to.compareTo(from) < 0) {
+            throw new IllegalArgumentException("Range \"" + values + "\" needs from <= to and a positive step");
+        }
+        for (BigDecimal value = from; value.compareTo(to) <= 0; value = value.add(step)) {
+            list.add(value.toPlainString());
+        }
+        return list;
+    }
+
+}
@@ -1,7 +1,5 @@
 package imsam.probability;
 
-import java.util.Random;
-
 
 /**
  * Simple implementation of ProbabilityDistribution modeling
@@ -9,15 +7,15 @@ import java.util.Random;
  */
 public class CoinTossDistribution implements ProbabilityDistribution {
 
-    private final Random rand;
+    private final RandomStream rand;
 
 
     public CoinTossDistribution() {
-        rand = new Random();
+        rand = RandomStream.newStream();
     }
 
     public CoinTossDistribution(long seed) {
-        rand = new Random(seed);
+        rand = new RandomStream(seed);
     }
 
     
@@ -32,7 +30,12 @@ public class CoinTossDistribution implements ProbabilityDistribution {
 
     @Override
     public double random() {
-        return rand.nextBoolean() ? 1 : 0;
+        return random(rand);
+    }
+
+    @Override
+    public double random(RandomStream stream) {
+        return stream.nextBoolean() ? 1 : 0;
     }
     
 }
@@ -8,7 +8,6 @@ import java.util.InputMismatchException;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.Random;
 import java.util.Scanner;
 
 import org.apache.logging.log4j.LogManager;
@@ -165,7 +164,13 @@ public class DiscreteProbabilityDistribution implements ProbabilityDistribution
      */
     private final List<ProbabilityMapping> probabilities;
 
-    private final Random rand;
+    private final RandomStream rand;
+
+    /**
+     * Cumulative probabilities of the mappings, in list order, for
+     * binary search in random(). Built by normalize().
+     */
+    private double[] cumulative;
 
     /**
      * Constructors are private. Use static methods to create
@@ -174,7 +179,7 @@ public class DiscreteProbabilityDistribution implements ProbabilityDistribution
      */
     private DiscreteProbabilityDistribution(int size) {
         this.probabilities = new ArrayList<ProbabilityMapping>(size);
-        this.rand = new Random();
+        this.rand = RandomStream.newStream();
     }
 
     /**
@@ -184,17 +189,17 @@ public class DiscreteProbabilityDistribution implements ProbabilityDistribution
      */
     private DiscreteProbabilityDistribution(List<ProbabilityMapping> probabilities) {
         this.probabilities = probabilities;
-        this.rand = new Random();
+        this.rand = RandomStream.newStream();
     }
 
     private DiscreteProbabilityDistribution(int size, long seed) {
         this.probabilities = new ArrayList<ProbabilityMapping>(size);
-        this.rand = new Random(seed);
+        this.rand = new RandomStream(seed);
     }
 
     private DiscreteProbabilityDistribution(List<ProbabilityMapping> probabilities, long seed) {
         this.probabilities = probabilities;
-        this.rand = new Random(seed);
+        this.rand = new RandomStream(seed);
     }
 
     /**
@@ -218,15 +223,36 @@ public class DiscreteProbabilityDistribution implements ProbabilityDistribution
      */
     @Override
     public double random() {
-        double x = rand.nextDouble();
-        double probSum = 0;
-        for (ProbabilityMapping probMapping : probabilities) {
-            probSum += probMapping.probability;
-            if (x <= probSum) {
-                return probMapping.value;
+        return random(rand);
+    }
+
+    /**
+     * Returns a random value based on the histograms probability
+     * distribution, drawn from the given stream
+     * @param stream random number stream to draw from
+     * @return random value from distribution
+     */
+    @Override
+    public double random(RandomStream stream) {
+        if (cumulative == null) {
+            cumulative = cumulativeProbabilities();
+        }
+        double x = stream.nextDouble();
+        // First mapping with x <= cumulative probability
+        int lo = 0;
+        int hi = cumulative.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (x <= cumulative[mid]) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
             }
         }
-        return probabilities.get(probabilities.size()-1).value;
+        if (lo == cumulative.length) {
+            lo--;
+        }
+        return probabilities.get(lo).value;
     }
 
     /**
@@ -348,6 +374,20 @@ public class DiscreteProbabilityDistribution implements ProbabilityDistribution
                 probMapping.probability = probMapping.probability / totalProbability;
             }
         }
+        cumulative = cumulativeProbabilities();
+    }
+
+    /**
+     * Running sums of the probabilities, in list order
+     */
+    private double[] cumulativeProbabilities() {
+        double[] sums = new double[probabilities.size()];
+        double probSum = 0;
+        for (int i = 0; i < sums.length; i++) {
+            probSum += probabilities.get(i).probability;
+            sums[i] = probSum;
+        }
+        return sums;
     }
 
     //
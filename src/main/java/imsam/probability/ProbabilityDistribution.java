@@ -14,6 +14,15 @@ public interface ProbabilityDistribution {
      */
     public double random();
 
+    /**
+     * Returns a random value based on this probability
+     * distribution, drawn from the given stream instead of the
+     * distribution's own (e.g. one stream per worker thread)
+     * @param stream random number stream to draw from
+     * @return random value from this distribution
+     */
+    public double random(RandomStream stream);
+
     public static ProbabilityDistribution ParseJson(JSONObject json) {
         String type = json.getString("type");
         switch (type) {
@@ -0,0 +1,133 @@
+package imsam.probability;
+
+/**
+ * Seedable, splittable pseudo-random number stream (SplitMix64, the
+ * generator behind java.util.SplittableRandom). Unlike SplittableRandom
+ * a stream can be reseeded in place, so a simulator can start every path
+ * on its own stream without allocating.
+ *
+ * All randomness of a run derives from the --seed:
+ *  - the samplers start path n on the stream pathSeed(seed, n), so the
+ *    weight of a path depends only on the seed and its index, not on the
+ *    number of threads or on which worker simulated it;
+ *  - everything else (e.g. unseeded ProbabilityDistributions) splits
+ *    its stream off the root stream, see setRootSeed() and newStream().
+ *
+ * A stream is not thread safe; give every thread its own (see split()).
+ */
+public final class RandomStream {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private static RandomStream root = new RandomStream(mix64(System.nanoTime()));
+
+    private long state;
+
+    public RandomStream(long seed) {
+        this.state = seed;
+    }
+
+
+    ///////////////////////////////////////////////////////////
+    // Static Methods
+
+    /**
+     * Reseeds the root stream, from which all unseeded streams are split
+     */
+    public static synchronized void setRootSeed(long seed) {
+        root = new RandomStream(seed);
+    }
+
+    /**
+     * @return a new stream split off the root stream
+     */
+    public static synchronized RandomStream newStream() {
+        return root.split();
+    }
+
+    /**
+     * Counter-based seed of the stream for path number index of a run
+     * @param seed  master seed of the run
+     * @param index path number
+     */
+    public static long pathSeed(long seed, long index) {
+        return mix64(mix64(seed) + (index + 1) * GOLDEN_GAMMA);
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    //
+    ///////////////////////////////////////////////////////////
+
+
+
+    ///////////////////////////////////////////////////////////
+    // Class Methods
+
+    /**
+     * Restarts the stream from the given seed
+     */
+    public void reseed(long seed) {
+        state = seed;
+    }
+
+    /**
+     * @return a new, statistically independent stream; advances this one
+     */
+    public RandomStream split() {
+        return new RandomStream(mix64(nextLong()));
+    }
+
+    public long nextLong() {
+        return mix64(state += GOLDEN_GAMMA);
+    }
+
+    /**
+     * @return uniform double in [0, 1)
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * @return uniform double in [0, bound)
+     */
+    public double nextDouble(double bound) {
+        return nextDouble() * bound;
+    }
+
+    /**
+     * @return exponentially distributed double with the given rate
+     */
+    public double nextExponential(double rate) {
+        return -Math.log(1.0 - nextDouble()) / rate;
+    }
+
+    /**
+     * @return uniform int in [0, bound)
+     */
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound must be positive");
+        }
+        int bits;
+        int value;
+        do {
+            bits  = (int) (nextLong() >>> 33);
+            value = bits % bound;
+        } while (bits - value + (bound - 1) < 0);
+        return value;
+    }
+
+    public boolean nextBoolean() {
+        return nextLong() < 0;
+    }
+
+    //
+    ///////////////////////////////////////////////////////////
+
+}
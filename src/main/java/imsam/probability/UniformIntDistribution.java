@@ -1,7 +1,5 @@
 package imsam.probability;
 
-import java.util.Random;
-
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -19,7 +17,7 @@ public class UniformIntDistribution implements ProbabilityDistribution {
     
     private final int min;
     private final int max;
-    private final Random rand;
+    private final RandomStream rand;
 
     
     public UniformIntDistribution(int max) {
@@ -27,7 +25,7 @@ public class UniformIntDistribution implements ProbabilityDistribution {
     }
 
     public UniformIntDistribution(int min, int max) {
-        this.rand = new Random();
+        this.rand = RandomStream.newStream();
         this.min  = min;
         this.max  = max;
     }
@@ -37,7 +35,7 @@ public class UniformIntDistribution implements ProbabilityDistribution {
     }
 
     public UniformIntDistribution(int min, int max, long seed) {
-        this.rand = new Random(seed);
+        this.rand = new RandomStream(seed);
         this.min  = min;
         this.max  = max;
     }
@@ -50,16 +48,21 @@ public class UniformIntDistribution implements ProbabilityDistribution {
             this.min = 0;
         }
         if (json.has("seed")) {
-            this.rand = new Random(json.getLong("seed"));
+            this.rand = new RandomStream(json.getLong("seed"));
         } else {
-            this.rand = new Random();
+            this.rand = RandomStream.newStream();
         }
     }
 
 
     @Override
     public double random() {
-        return rand.nextInt((max - min) + 1) + min;
+        return random(rand);
+    }
+
+    @Override
+    public double random(RandomStream stream) {
+        return stream.nextInt((max - min) + 1) + min;
     }
     
 }
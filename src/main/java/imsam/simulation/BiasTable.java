@@ -0,0 +1,147 @@
+package imsam.simulation;
+
+import java.util.Arrays;
+
+/**
+ * State-dependent predilections (sdwSSA): the predilection of an action
+ * is piecewise constant over bins of one integer model variable, the
+ * reaction coordinate (e.g. G_bg in eight_rxn).
+ *
+ * The variable's range [low, high] is split into numBins bins of equal
+ * width. Values are mapped to bins by a lookup array and the
+ * predilections are stored flat, by bin then action, so a lookup costs
+ * two array reads per step whatever the number of bins.
+ *
+ * Instances are immutable and may be shared between threads; the
+ * cross-entropy tuning creates a new table per iteration with
+ * withDeltas().
+ */
+public class BiasTable {
+
+    public final String variable;
+    public final int    varIndex;
+    public final int    low;
+    public final int    high;
+    public final int    numBins;
+    public final int    numActions;
+
+    private final int[]    binOfValue;
+    private final int[]    binStart;
+    private final double[] deltas;
+
+    private BiasTable(String variable, int varIndex, int low, int high, int numBins, int numActions,
+                      int[] binOfValue, int[] binStart, double[] deltas) {
+        this.variable   = variable;
+        this.varIndex   = varIndex;
+        this.low        = low;
+        this.high       = high;
+        this.numBins    = numBins;
+        this.numActions = numActions;
+        this.binOfValue = binOfValue;
+        this.binStart   = binStart;
+        this.deltas     = deltas;
+    }
+
+    /**
+     * Creates a table with the constant predilections of the model in
+     * every bin
+     * @param variable      name of the reaction coordinate
+     * @param varIndex      its index in the model's variables (and state)
+     * @param low           lower bound of the variable
+     * @param high          upper bound of the variable
+     * @param numBins       number of bins, at most high-low+1
+     * @param constants     predilection of every action to start from
+     */
+    public static BiasTable uniform(String variable, int varIndex, int low, int high, int numBins,
+                                    double[] constants) {
+        int size = high - low + 1;
+        if (numBins < 1 || numBins > size) {
+            throw new IllegalArgumentException("Number of bins must be between 1 and " + size
+                    + " for variable " + variable + " in [" + low + ".." + high + "]");
+        }
+        int[] binStart = new int[numBins];
+        int[] binOfValue = new int[size];
+        for (int b = 0; b < numBins; b++) {
+            int from = (int) ((long) size * b / numBins);
+            int to   = (int) ((long) size * (b + 1) / numBins);
+            binStart[b] = low + from;
+            Arrays.fill(binOfValue, from, to, b);
+        }
+        int numActions = constants.length;
+        double[] deltas = new double[numBins * numActions];
+        for (int b = 0; b < numBins; b++) {
+            System.arraycopy(constants, 0, deltas, b * numActions, numActions);
+        }
+        return new BiasTable(variable, varIndex, low, high, numBins, numActions, binOfValue, binStart, deltas);
+    }
+
+    /**
+     * @return the same bins with new predilections, indexed by cell()
+     */
+    public BiasTable withDeltas(double[] deltas) {
+        if (deltas.length != this.deltas.length) {
+            throw new IllegalArgumentException("Expected " + this.deltas.length + " predilections, got " + deltas.length);
+        }
+        return new BiasTable(variable, varIndex, low, high, numBins, numActions, binOfValue, binStart, deltas.clone());
+    }
+
+    /**
+     * @return bin of a value of the variable; values outside the declared
+     *         range fall in the first or last bin
+     */
+    public int bin(int value) {
+        int i = value - low;
+        if (i < 0) {
+            return 0;
+        }
+        if (i >= binOfValue.length) {
+            return numBins - 1;
+        }
+        return binOfValue[i];
+    }
+
+    /**
+     * @return index of the predilection of an action in a bin
+     */
+    public int cell(int bin, int action) {
+        return bin * numActions + action;
+    }
+
+    public double get(int bin, int action) {
+        return deltas[bin * numActions + action];
+    }
+
+    /**
+     * @return copy of all predilections, indexed by cell()
+     */
+    public double[] getDeltas() {
+        return deltas.clone();
+    }
+
+    /**
+     * @return smallest value of the variable in a bin
+     */
+    public int getBinStart(int bin) {
+        return binStart[bin];
+    }
+
+    /**
+     * The predilections of an action as a PRISM formula, which
+     * Predilections reads back as a state-dependent predilection, e.g.
+     *
+     *     formula deltaR5 = G_bg<25 ? 10.0 : (G_bg<50 ? 3.0 : 1.0);
+     */
+    public String toFormula(String name, int action) {
+        StringBuilder formula = new StringBuilder("formula " + name + " = ");
+        for (int b = 0; b < numBins - 1; b++) {
+            formula.append(variable).append('<').append(binStart[b + 1])
+                   .append(" ? ").append(get(b, action)).append(b < numBins - 2 ? " : (" : " : ");
+        }
+        formula.append(get(numBins - 1, action));
+        for (int b = 0; b < numBins - 2; b++) {
+            formula.append(')');
+        }
+        return formula.append(';').toString();
+    }
+
+}
@@ -0,0 +1,94 @@
+package imsam.simulation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * State of a simulate run that is enough to continue it later: the run
+ * seed, a fingerprint of the options the samples depend on, and the
+ * accumulated SampleStatistics.
+ *
+ * Paths are numbered and path n runs on the random stream
+ * RandomStream.pathSeed(seed, n), so the position of the random streams
+ * is the number of paths sampled: a resumed run continues with path
+ * stats.getCount() and yields the same samples as an uninterrupted one.
+ *
+ * The file is a small big-endian binary record (see write()). It is
+ * written to a temporary file first and moved in place, so a run killed
+ * while checkpointing leaves the previous checkpoint intact.
+ */
+public class Checkpoint {
+
+    static final int MAGIC   = 0x494d4350; // "IMCP"
+    static final int VERSION = 1;
+
+    public final long             seed;
+    public final String           fingerprint;
+    public final SampleStatistics stats;
+
+    /**
+     * @param seed        seed of the run
+     * @param fingerprint options that must not change on resume, e.g.
+     *                    model, constants and Tmax
+     * @param stats       statistics of paths 0 to stats.getCount()-1
+     */
+    public Checkpoint(long seed, String fingerprint, SampleStatistics stats) {
+        this.seed        = seed;
+        this.fingerprint = fingerprint;
+        this.stats       = stats;
+    }
+
+    /**
+     * @return number of the next path to sample
+     */
+    public long getNextPath() {
+        return stats.getCount();
+    }
+
+    /**
+     * Atomically replaces the file with this checkpoint
+     */
+    public void write(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(seed);
+            out.writeUTF(fingerprint);
+            out.writeLong(stats.getCount());
+            out.writeDouble(stats.getMean());
+            out.writeDouble(stats.getM2());
+            out.writeLong(stats.getNonZeroCount());
+            out.writeDouble(stats.getMin());
+            out.writeDouble(stats.getMax());
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @throws IOException if the file is not a checkpoint of this version
+     */
+    public static Checkpoint read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a checkpoint file");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException(file + " has checkpoint version " + version + ", expected " + VERSION);
+            }
+            long   seed        = in.readLong();
+            String fingerprint = in.readUTF();
+            SampleStatistics stats = new SampleStatistics(in.readLong(), in.readDouble(), in.readDouble(),
+                                                          in.readLong(), in.readDouble(), in.readDouble());
+            return new Checkpoint(seed, fingerprint, stats);
+        }
+    }
+
+}
@@ -0,0 +1,409 @@
+package imsam.simulation;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import parser.ast.Expression;
+import parser.ast.ExpressionBinaryOp;
+import parser.ast.ExpressionFunc;
+import parser.ast.ExpressionITE;
+import parser.ast.ExpressionLiteral;
+import parser.ast.ExpressionUnaryOp;
+import parser.ast.ExpressionVar;
+import prism.PrismLangException;
+
+/**
+ * A PRISM expression compiled into a tree of primitive operations over
+ * an int[] state vector. Booleans are represented as 1.0 (true) and 0.0
+ * (false), which keeps guards, rates and labels in a single node type.
+ *
+ * Expressions must have all constants replaced by literals before they
+ * are compiled (see ReactionNetwork.compile).
+ */
+public abstract class CompiledExpression {
+
+    /**
+     * Evaluates the expression on the given state
+     * @param state variable values, indexed like the PRISM model variables
+     * @return numeric value, or 1.0/0.0 for boolean expressions
+     */
+    public abstract double evaluate(int[] state);
+
+    public boolean evaluateBoolean(int[] state) {
+        return evaluate(state) != 0.0;
+    }
+
+    /**
+     * @return true if this expression does not depend on the state
+     */
+    public boolean isConstant() {
+        return false;
+    }
+
+    /**
+     * Adds the indices of all state variables the expression reads
+     * @param vars set to add the variable indices to
+     */
+    public void collectVariables(BitSet vars) {
+    }
+
+
+    ///////////////////////////////////////////////////////////
+    // Compiler
+
+    /**
+     * Compiles a constant-free PRISM expression
+     * @param expr expression with all constants replaced by literals
+     * @return compiled expression
+     * @throws PrismLangException if the expression uses an unsupported operator
+     */
+    public static CompiledExpression compile(Expression expr) throws PrismLangException {
+        if (expr instanceof ExpressionLiteral) {
+            return new Literal(toDouble(((ExpressionLiteral) expr).getValue()));
+        }
+        if (expr instanceof ExpressionVar) {
+            return new Var(((ExpressionVar) expr).getIndex());
+        }
+        if (expr instanceof ExpressionUnaryOp) {
+            ExpressionUnaryOp op = (ExpressionUnaryOp) expr;
+            CompiledExpression operand = compile(op.getOperand());
+            switch (op.getOperator()) {
+                case ExpressionUnaryOp.PARENTH:
+                    return operand;
+                case ExpressionUnaryOp.NOT:
+                    return fold(new Not(operand));
+                case ExpressionUnaryOp.MINUS:
+                    return fold(new Negate(operand));
+            }
+        }
+        if (expr instanceof ExpressionBinaryOp) {
+            ExpressionBinaryOp op = (ExpressionBinaryOp) expr;
+            if (op.getOperator() == ExpressionBinaryOp.TIMES) {
+                MassAction product = MassAction.of(op);
+                if (product != null) {
+                    return fold(product);
+                }
+            }
+            return fold(new BinaryOp(
+                    op.getOperator(),
+                    compile(op.getOperand1()),
+                    compile(op.getOperand2())
+            ));
+        }
+        if (expr instanceof ExpressionITE) {
+            ExpressionITE ite = (ExpressionITE) expr;
+            return fold(new IfThenElse(
+                    compile(ite.getOperand1()),
+                    compile(ite.getOperand2()),
+                    compile(ite.getOperand3())
+            ));
+        }
+        if (expr instanceof ExpressionFunc) {
+            ExpressionFunc func = (ExpressionFunc) expr;
+            CompiledExpression[] operands = new CompiledExpression[func.getNumOperands()];
+            for (int i = 0; i < operands.length; i++) {
+                operands[i] = compile(func.getOperand(i));
+            }
+            switch (func.getNameCode()) {
+                case ExpressionFunc.MIN:
+                case ExpressionFunc.MAX:
+                case ExpressionFunc.FLOOR:
+                case ExpressionFunc.CEIL:
+                case ExpressionFunc.POW:
+                case ExpressionFunc.MOD:
+                    return fold(new Function(func.getNameCode(), operands));
+            }
+        }
+        throw new PrismLangException("Expression \"" + expr + "\" is not supported by the native engine");
+    }
+
+    /**
+     * Replaces state-independent subtrees by literals
+     */
+    private static CompiledExpression fold(CompiledExpression expr) {
+        return expr.isConstant() ? new Literal(expr.evaluate(null)) : expr;
+    }
+
+    private static double toDouble(Object value) throws PrismLangException {
+        if (value instanceof Boolean) {
+            return ((Boolean) value) ? 1.0 : 0.0;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        throw new PrismLangException("Unsupported literal \"" + value + "\" in native engine");
+    }
+
+    //
+    ///////////////////////////////////////////////////////////
+
+
+
+    ///////////////////////////////////////////////////////////
+    // Expression nodes
+
+    static final class Literal extends CompiledExpression {
+        final double value;
+        Literal(double value) {
+            this.value = value;
+        }
+        @Override
+        public double evaluate(int[] state) {
+            return value;
+        }
+        @Override
+        public boolean isConstant() {
+            return true;
+        }
+    }
+
+    static final class Var extends CompiledExpression {
+        final int index;
+        Var(int index) {
+            this.index = index;
+        }
+        @Override
+        public double evaluate(int[] state) {
+            return state[index];
+        }
+        @Override
+        public void collectVariables(BitSet vars) {
+            vars.set(index);
+        }
+    }
+
+    /**
+     * Product of a coefficient and state variables, e.g. k3*a*b. This is
+     * the propensity form of mass-action reactions and is evaluated
+     * without recursion.
+     */
+    static final class MassAction extends CompiledExpression {
+        final double coefficient;
+        final int[] vars;
+        MassAction(double coefficient, int[] vars) {
+            this.coefficient = coefficient;
+            this.vars = vars;
+        }
+        @Override
+        public double evaluate(int[] state) {
+            double result = coefficient;
+            for (int var : vars) {
+                result *= state[var];
+            }
+            return result;
+        }
+        @Override
+        public boolean isConstant() {
+            return vars.length == 0;
+        }
+        @Override
+        public void collectVariables(BitSet vars) {
+            for (int var : this.vars) {
+                vars.set(var);
+            }
+        }
+
+        /**
+         * @return the flattened product, or null if a factor is not a variable or literal
+         */
+        static MassAction of(Expression expr) throws PrismLangException {
+            double[] coefficient = { 1.0 };
+            List<Integer> vars = new ArrayList<>();
+            if (!collectFactors(expr, coefficient, vars)) {
+                return null;
+            }
+            return new MassAction(coefficient[0], vars.stream().mapToInt(Integer::intValue).toArray());
+        }
+
+        private static boolean collectFactors(Expression expr, double[] coefficient, List<Integer> vars)
+                throws PrismLangException {
+            if (expr instanceof ExpressionUnaryOp
+                    && ((ExpressionUnaryOp) expr).getOperator() == ExpressionUnaryOp.PARENTH) {
+                return collectFactors(((ExpressionUnaryOp) expr).getOperand(), coefficient, vars);
+            }
+            if (expr instanceof ExpressionBinaryOp
+                    && ((ExpressionBinaryOp) expr).getOperator() == ExpressionBinaryOp.TIMES) {
+                ExpressionBinaryOp op = (ExpressionBinaryOp) expr;
+                return collectFactors(op.getOperand1(), coefficient, vars)
+                        && collectFactors(op.getOperand2(), coefficient, vars);
+            }
+            if (expr instanceof ExpressionLiteral) {
+                coefficient[0] *= toDouble(((ExpressionLiteral) expr).getValue());
+                return true;
+            }
+            if (expr instanceof ExpressionVar) {
+                vars.add(((ExpressionVar) expr).getIndex());
+                return true;
+            }
+            return false;
+        }
+    }
+
+    static final class Not extends CompiledExpression {
+        final CompiledExpression operand;
+        Not(CompiledExpression operand) {
+            this.operand = operand;
+        }
+        @Override
+        public double evaluate(int[] state) {
+            return operand.evaluate(state) == 0.0 ? 1.0 : 0.0;
+        }
+        @Override
+        public boolean isConstant() {
+            return operand.isConstant();
+        }
+        @Override
+        public void collectVariables(BitSet vars) {
+            operand.collectVariables(vars);
+        }
+    }
+
+    static final class Negate extends CompiledExpression {
+        final CompiledExpression operand;
+        Negate(CompiledExpression operand) {
+            this.operand = operand;
+        }
+        @Override
+        public double evaluate(int[] state) {
+            return -operand.evaluate(state);
+        }
+        @Override
+        public boolean isConstant() {
+            return operand.isConstant();
+        }
+        @Override
+        public void collectVariables(BitSet vars) {
+            operand.collectVariables(vars);
+        }
+    }
+
+    static final class BinaryOp extends CompiledExpression {
+        final int operator;
+        final CompiledExpression operand1;
+        final CompiledExpression operand2;
+        BinaryOp(int operator, CompiledExpression operand1, CompiledExpression operand2) throws PrismLangException {
+            if (operator < ExpressionBinaryOp.IMPLIES || operator > ExpressionBinaryOp.DIVIDE) {
+                throw new PrismLangException("Unknown binary operator " + operator + " in native engine");
+            }
+            this.operator = operator;
+            this.operand1 = operand1;
+            this.operand2 = operand2;
+        }
+        @Override
+        public double evaluate(int[] state) {
+            // Boolean connectives short-circuit like PRISM does
+            switch (operator) {
+                case ExpressionBinaryOp.AND:
+                    return (operand1.evaluate(state) != 0.0 && operand2.evaluate(state) != 0.0) ? 1.0 : 0.0;
+                case ExpressionBinaryOp.OR:
+                    return (operand1.evaluate(state) != 0.0 || operand2.evaluate(state) != 0.0) ? 1.0 : 0.0;
+                case ExpressionBinaryOp.IMPLIES:
+                    return (operand1.evaluate(state) == 0.0 || operand2.evaluate(state) != 0.0) ? 1.0 : 0.0;
+                default:
+                    break;
+            }
+            double a = operand1.evaluate(state);
+            double b = operand2.evaluate(state);
+            switch (operator) {
+                case ExpressionBinaryOp.IFF:    return ((a != 0.0) == (b != 0.0)) ? 1.0 : 0.0;
+                case ExpressionBinaryOp.EQ:     return (a == b) ? 1.0 : 0.0;
+                case ExpressionBinaryOp.NE:     return (a != b) ? 1.0 : 0.0;
+                case ExpressionBinaryOp.GT:     return (a >  b) ? 1.0 : 0.0;
+                case ExpressionBinaryOp.GE:     return (a >= b) ? 1.0 : 0.0;
+                case ExpressionBinaryOp.LT:     return (a <  b) ? 1.0 : 0.0;
+                case ExpressionBinaryOp.LE:     return (a <= b) ? 1.0 : 0.0;
+                case ExpressionBinaryOp.PLUS:   return a + b;
+                case ExpressionBinaryOp.MINUS:  return a - b;
+                case ExpressionBinaryOp.TIMES:  return a * b;
+                default:                        return a / b;
+            }
+        }
+        @Override
+        public boolean isConstant() {
+            return operand1.isConstant() && operand2.isConstant();
+        }
+        @Override
+        public void collectVariables(BitSet vars) {
+            operand1.collectVariables(vars);
+            operand2.collectVariables(vars);
+        }
+    }
+
+    static final class IfThenElse extends CompiledExpression {
+        final CompiledExpression condition;
+        final CompiledExpression thenExpr;
+        final CompiledExpression elseExpr;
+        IfThenElse(CompiledExpression condition, CompiledExpression thenExpr, CompiledExpression elseExpr) {
+            this.condition = condition;
+            this.thenExpr = thenExpr;
+            this.elseExpr = elseExpr;
+        }
+        @Override
+        public double evaluate(int[] state) {
+            return condition.evaluate(state) != 0.0 ? thenExpr.evaluate(state) : elseExpr.evaluate(state);
+        }
+        @Override
+        public boolean isConstant() {
+            return condition.isConstant() && thenExpr.isConstant() && elseExpr.isConstant();
+        }
+        @Override
+        public void collectVariables(BitSet vars) {
+            condition.collectVariables(vars);
+            thenExpr.collectVariables(vars);
+            elseExpr.collectVariables(vars);
+        }
+    }
+
+    static final class Function extends CompiledExpression {
+        final int code;
+        final CompiledExpression[] operands;
+        Function(int code, CompiledExpression[] operands) {
+            this.code = code;
+            this.operands = operands;
+        }
+        @Override
+        public double evaluate(int[] state) {
+            double result = operands[0].evaluate(state);
+            switch (code) {
+                case ExpressionFunc.MIN:
+                    for (int i = 1; i < operands.length; i++) {
+                        result = Math.min(result, operands[i].evaluate(state));
+                    }
+                    return result;
+                case ExpressionFunc.MAX:
+                    for (int i = 1; i < operands.length; i++) {
+                        result = Math.max(result, operands[i].evaluate(state));
+                    }
+                    return result;
+                case ExpressionFunc.FLOOR:
+                    return Math.floor(result);
+                case ExpressionFunc.CEIL:
+                    return Math.ceil(result);
+                case ExpressionFunc.POW:
+                    return Math.pow(result, operands[1].evaluate(state));
+                default:
+                    return Math.floorMod((long) result, (long) operands[1].evaluate(state));
+            }
+        }
+        @Override
+        public boolean isConstant() {
+            for (CompiledExpression operand : operands) {
+                if (!operand.isConstant()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        @Override
+        public void collectVariables(BitSet vars) {
+            for (CompiledExpression operand : operands) {
+                operand.collectVariables(vars);
+            }
+        }
+    }
+
+    //
+    ///////////////////////////////////////////////////////////
+
+}
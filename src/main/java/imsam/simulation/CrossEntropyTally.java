@@ -0,0 +1,120 @@
+package imsam.simulation;
+
+import java.util.Arrays;
+
+/**
+ * Sufficient statistics of the cross-entropy update of constant
+ * predilections, collected from pilot paths.
+ *
+ * A path picks transition j in state x with probability
+ * delta_j a_j(x) / B(x), where B(x) is the sum of the biased rates of the
+ * transitions allowed by the constraint. Maximising the weighted
+ * log-likelihood sum_k w_k log P_delta(path k) of the successful paths
+ * gives, per action,
+ *
+ *     delta_j = sum_k w_k n_jk / sum_k w_k sum_{x on path k} a_j(x) / B(x)
+ *
+ * where n_jk is the number of times action j fired on path k and w_k is
+ * the path's importance sampling weight. B is evaluated with the current
+ * predilections, so the update is iterated to a fixed point.
+ *
+ * Not thread safe; use one tally per worker and merge them.
+ */
+public class CrossEntropyTally {
+
+    // Current path
+    private final double[] pathCounts;
+    private final double[] pathExposure;
+
+    // Successful paths, weighted
+    private final double[] counts;
+    private final double[] exposure;
+    private long successes = 0;
+
+    /**
+     * @param numActions number of action indices, see Predilections
+     */
+    public CrossEntropyTally(int numActions) {
+        pathCounts   = new double[numActions];
+        pathExposure = new double[numActions];
+        counts       = new double[numActions];
+        exposure     = new double[numActions];
+    }
+
+    public void startPath() {
+        Arrays.fill(pathCounts, 0.0);
+        Arrays.fill(pathExposure, 0.0);
+    }
+
+    /**
+     * Records an allowed transition of the current state
+     * @param action            action index of the transition
+     * @param nativeRate        its unbiased rate a_j(x)
+     * @param modifiedTotalRate sum B(x) of the biased rates of the state
+     */
+    public void expose(int action, double nativeRate, double modifiedTotalRate) {
+        pathExposure[action] += nativeRate / modifiedTotalRate;
+    }
+
+    /**
+     * Records the transition taken from the current state
+     */
+    public void fire(int action) {
+        pathCounts[action]++;
+    }
+
+    /**
+     * Adds the current path to the tally if it was successful
+     * @param weight importance sampling weight of the path
+     */
+    public void endPath(double weight) {
+        if (weight <= 0) {
+            return;
+        }
+        successes++;
+        for (int a = 0; a < counts.length; a++) {
+            counts[a]   += weight * pathCounts[a];
+            exposure[a] += weight * pathExposure[a];
+        }
+    }
+
+    public void merge(CrossEntropyTally other) {
+        for (int a = 0; a < counts.length; a++) {
+            counts[a]   += other.counts[a];
+            exposure[a] += other.exposure[a];
+        }
+        successes += other.successes;
+    }
+
+    /**
+     * @return number of successful paths in the tally
+     */
+    public long getSuccesses() {
+        return successes;
+    }
+
+    /**
+     * @return true if the action was ever allowed on a successful path,
+     *         i.e. the tally says something about its predilection
+     */
+    public boolean isObserved(int action) {
+        return exposure[action] > 0;
+    }
+
+    /**
+     * @return true if the action fired on a successful path; otherwise
+     *         its estimate is 0
+     */
+    public boolean hasFired(int action) {
+        return counts[action] > 0;
+    }
+
+    /**
+     * Cross-entropy estimate of the predilection of an action; only
+     * meaningful if isObserved(action)
+     */
+    public double estimate(int action) {
+        return counts[action] / exposure[action];
+    }
+
+}
@@ -0,0 +1,69 @@
+package imsam.simulation;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive doubles. Used for per-path buffers that are
+ * cleared and refilled for every path, so after the first few paths no
+ * further allocation takes place.
+ */
+public class DoubleArrayList {
+
+    private double[] values;
+    private int size = 0;
+    private double sum = 0.0;
+
+    public DoubleArrayList() {
+        this(64);
+    }
+
+    public DoubleArrayList(int initialCapacity) {
+        values = new double[Math.max(1, initialCapacity)];
+    }
+
+    public void add(double value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, 2 * values.length);
+        }
+        values[size++] = value;
+        sum += value;
+    }
+
+    public void addAll(DoubleArrayList other) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.values[i]);
+        }
+    }
+
+    public double get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+        return values[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return running sum of all values added since the last clear()
+     */
+    public double sum() {
+        return sum;
+    }
+
+    /**
+     * Removes all values, keeping the allocated capacity
+     */
+    public void clear() {
+        size = 0;
+        sum = 0.0;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(Arrays.copyOf(values, size));
+    }
+
+}
@@ -0,0 +1,112 @@
+package imsam.simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import parser.ast.Expression;
+import parser.ast.FormulaList;
+import parser.ast.LabelList;
+import parser.ast.ModulesFile;
+import prism.PrismException;
+import prism.PrismLangException;
+
+/**
+ * Importance function of multilevel splitting: maps a state of a
+ * compiled reaction network to the highest intermediate level it has
+ * reached, 0 if none.
+ *
+ * The levels are given in the model, either as a formula
+ *
+ *     formula importance = c;
+ *
+ * with increasing thresholds (level i is reached when the formula is at
+ * least the i-th threshold), or as labels "importance1", "importance2",
+ * ... (level i is reached when label i holds). The objective label is
+ * the final level and is not counted here.
+ *
+ * Instances are immutable and may be shared between threads.
+ */
+public class ImportanceFunction {
+
+    // Formula mode
+    private final CompiledExpression function;
+    private final double[]           thresholds;
+
+    // Label mode
+    private final CompiledExpression[] labels;
+
+    public final int numLevels;
+
+    private ImportanceFunction(CompiledExpression function, double[] thresholds, CompiledExpression[] labels) {
+        this.function   = function;
+        this.thresholds = thresholds;
+        this.labels     = labels;
+        this.numLevels  = (function != null) ? thresholds.length : labels.length;
+    }
+
+    /**
+     * @param modulesFile parsed model with all constant values defined
+     * @param name        name of the formula, or prefix of the labels
+     * @param thresholds  increasing level thresholds of the formula; must
+     *                    be empty for labels
+     * @throws PrismLangException if the model has neither a formula nor
+     *         labels of that name, or the thresholds do not fit
+     */
+    public static ImportanceFunction compile(ModulesFile modulesFile, String name, double[] thresholds)
+            throws PrismException {
+        FormulaList formulas = modulesFile.getFormulaList();
+        for (int i = 0; i < formulas.size(); i++) {
+            if (formulas.getFormulaName(i).equals(name)) {
+                if (thresholds.length == 0) {
+                    throw new PrismLangException("Importance formula " + name + " needs level thresholds");
+                }
+                for (int l = 1; l < thresholds.length; l++) {
+                    if (thresholds[l] <= thresholds[l-1]) {
+                        throw new PrismLangException("Level thresholds must be increasing");
+                    }
+                }
+                return new ImportanceFunction(compile(modulesFile, formulas.getFormula(i)), thresholds.clone(), null);
+            }
+        }
+
+        LabelList labelList = modulesFile.getLabelList();
+        List<CompiledExpression> labels = new ArrayList<>();
+        for (int l = 1; labelList.getLabelIndex(name + l) >= 0; l++) {
+            labels.add(compile(modulesFile, labelList.getLabel(labelList.getLabelIndex(name + l))));
+        }
+        if (labels.isEmpty()) {
+            throw new PrismLangException("Model has no formula \"" + name + "\" and no label \"" + name + "1\"");
+        }
+        if (thresholds.length > 0) {
+            throw new PrismLangException("Level thresholds only apply to an importance formula, " + name + " is given by labels");
+        }
+        return new ImportanceFunction(null, null, labels.toArray(new CompiledExpression[0]));
+    }
+
+    private static CompiledExpression compile(ModulesFile modulesFile, Expression expr) throws PrismException {
+        return CompiledExpression.compile((Expression) expr.deepCopy()
+                .replaceConstants(modulesFile.getConstantValues())
+                .simplify());
+    }
+
+    /**
+     * @return highest level reached in the state, from 0 to numLevels
+     */
+    public int level(int[] state) {
+        if (function != null) {
+            double value = function.evaluate(state);
+            int level = 0;
+            while (level < thresholds.length && value >= thresholds[level]) {
+                level++;
+            }
+            return level;
+        }
+        for (int l = labels.length; l > 0; l--) {
+            if (labels[l-1].evaluateBoolean(state)) {
+                return l;
+            }
+        }
+        return 0;
+    }
+
+}
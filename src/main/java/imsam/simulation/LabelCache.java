@@ -0,0 +1,187 @@
+package imsam.simulation;
+
+import java.util.BitSet;
+
+import parser.State;
+import parser.ast.Expression;
+import prism.PrismLangException;
+
+/**
+ * Memoised values of a boolean label (objective or constraint), for
+ * models whose paths revisit the same states (e.g. cycle_ssa).
+ *
+ * A state is encoded as a long by packing the values of the variables the
+ * label reads, each offset by its lower bound, into as many bits as its
+ * declared range needs. Variables the label does not read are left out,
+ * so states that only differ in those share an entry. The table is
+ * direct-mapped: an entry holds one key and is overwritten by the next
+ * state hashing to it, so memory stays fixed however many states a run
+ * visits.
+ *
+ * Not thread safe; every sampler has its own caches.
+ */
+public class LabelCache {
+
+    private final int[] vars;
+    private final int[] lows;
+    private final int[] highs;
+    private final int[] shifts;
+
+    private final long[] keys;
+    private final byte[] values;     // 0: empty, 1: false, 2: true
+    private final int    mask;
+
+    private long hits   = 0;
+    private long misses = 0;
+
+    private LabelCache(int[] vars, int[] lows, int[] highs, int[] shifts, int capacity) {
+        this.vars   = vars;
+        this.lows   = lows;
+        this.highs  = highs;
+        this.shifts = shifts;
+        keys   = new long[capacity];
+        values = new byte[capacity];
+        mask   = capacity - 1;
+    }
+
+    /**
+     * @param labelVars  indices of the variables the label reads
+     * @param lowBounds  lower bound of every model variable
+     * @param highBounds upper bound of every model variable
+     * @param capacity   number of entries, a power of two
+     * @return a cache, or null if the label reads no variable or their
+     *         ranges do not fit in 63 bits
+     */
+    public static LabelCache create(BitSet labelVars, int[] lowBounds, int[] highBounds, int capacity) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Label cache size must be a power of two, not " + capacity);
+        }
+        int numVars = labelVars.cardinality();
+        if (numVars == 0) {
+            return null;
+        }
+        int[] vars   = new int[numVars];
+        int[] lows   = new int[numVars];
+        int[] highs  = new int[numVars];
+        int[] shifts = new int[numVars];
+        int bits = 0;
+        int i = 0;
+        for (int v = labelVars.nextSetBit(0); v >= 0; v = labelVars.nextSetBit(v + 1), i++) {
+            vars[i]   = v;
+            lows[i]   = lowBounds[v];
+            highs[i]  = highBounds[v];
+            shifts[i] = bits;
+            bits += 64 - Long.numberOfLeadingZeros((long) highBounds[v] - lowBounds[v]);
+        }
+        if (bits > 63) {
+            return null;
+        }
+        return new LabelCache(vars, lows, highs, shifts, capacity);
+    }
+
+    /**
+     * @return key of a native state, or -1 if a value is out of range
+     */
+    public long key(int[] state) {
+        long key = 0;
+        for (int i = 0; i < vars.length; i++) {
+            int value = state[vars[i]];
+            if (value < lows[i] || value > highs[i]) {
+                return -1;
+            }
+            key |= (long) (value - lows[i]) << shifts[i];
+        }
+        return key;
+    }
+
+    /**
+     * @return key of a PRISM state (int and bool variables), or -1 if a
+     *         value is out of range or of another type
+     */
+    public long key(State state) {
+        long key = 0;
+        for (int i = 0; i < vars.length; i++) {
+            Object object = state.varValues[vars[i]];
+            int value;
+            if (object instanceof Integer) {
+                value = (Integer) object;
+            } else if (object instanceof Boolean) {
+                value = ((Boolean) object) ? 1 : 0;
+            } else {
+                return -1;
+            }
+            if (value < lows[i] || value > highs[i]) {
+                return -1;
+            }
+            key |= (long) (value - lows[i]) << shifts[i];
+        }
+        return key;
+    }
+
+    /**
+     * Evaluates a compiled label through the cache
+     */
+    public boolean evaluate(CompiledExpression label, int[] state) {
+        long key = key(state);
+        if (key < 0) {
+            return label.evaluateBoolean(state);
+        }
+        int cached = get(key);
+        if (cached >= 0) {
+            return cached == 1;
+        }
+        boolean value = label.evaluateBoolean(state);
+        put(key, value);
+        return value;
+    }
+
+    /**
+     * Evaluates a constant-free PRISM label through the cache
+     */
+    public boolean evaluate(Expression label, State state) throws PrismLangException {
+        long key = key(state);
+        if (key < 0) {
+            return label.evaluateBoolean(state);
+        }
+        int cached = get(key);
+        if (cached >= 0) {
+            return cached == 1;
+        }
+        boolean value = label.evaluateBoolean(state);
+        put(key, value);
+        return value;
+    }
+
+    /**
+     * @return 1 or 0 for a cached true or false, -1 if the key is not cached
+     */
+    public int get(long key) {
+        int slot = slot(key);
+        if (values[slot] != 0 && keys[slot] == key) {
+            hits++;
+            return values[slot] - 1;
+        }
+        misses++;
+        return -1;
+    }
+
+    public void put(long key, boolean value) {
+        int slot = slot(key);
+        keys[slot]   = key;
+        values[slot] = (byte) (value ? 2 : 1);
+    }
+
+    private int slot(long key) {
+        key *= 0x9e3779b97f4a7c15L;
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+}
@@ -0,0 +1,88 @@
+package imsam.simulation;
+
+/**
+ * Streaming histogram of non-negative lengths (e.g. transitions per path)
+ * for percentiles without storing the values. Lengths below 32 are
+ * counted exactly; larger ones in log-linear buckets, 32 per power of
+ * two, so a percentile is within about 3% of the true value.
+ *
+ * Histograms of disjoint sets of values can be combined with merge().
+ * Not thread safe; use one histogram per worker and merge them.
+ */
+public class LengthHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB      = 1 << SUB_BITS;
+
+    private final long[] counts = new long[(64 - SUB_BITS + 1) * SUB];
+    private long   count = 0;
+    private double sum   = 0.0;
+    private long   max   = 0;
+
+    public void add(long length) {
+        counts[index(length)]++;
+        count++;
+        sum += length;
+        if (length > max) {
+            max = length;
+        }
+    }
+
+    public void merge(LengthHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum   += other.sum;
+        max    = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return sum / count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @param p fraction in [0, 1], e.g. 0.99
+     * @return smallest bucket bound such that a fraction p of the lengths
+     *         is at most that long, or 0 if the histogram is empty
+     */
+    public long getPercentile(double p) {
+        long rank = Math.max(1, (long) Math.ceil(p * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(lowerBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    private static int index(long length) {
+        if (length < SUB) {
+            return (int) Math.max(length, 0);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(length);
+        int shift    = exponent - SUB_BITS;
+        int sub      = (int) ((length >>> shift) & (SUB - 1));
+        return (shift + 1) * SUB + sub;
+    }
+
+    private static long lowerBound(int index) {
+        if (index < SUB) {
+            return index;
+        }
+        int shift = index / SUB - 1;
+        int sub   = index % SUB;
+        return ((long) (SUB + sub)) << shift;
+    }
+
+}
@@ -0,0 +1,101 @@
+package imsam.simulation;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import parser.Values;
+import parser.ast.ConstantList;
+import parser.ast.ExpressionLiteral;
+import parser.ast.ModulesFile;
+import parser.type.Type;
+import parser.type.TypeBool;
+import parser.type.TypeDouble;
+import parser.type.TypeInt;
+import prism.PrismException;
+import prism.PrismLangException;
+
+/**
+ * Constant overrides of a parsed model, given as "name=value" strings.
+ *
+ * Values are converted to the type the constant is declared with in the
+ * model (int, double or bool). Undefined constants are set as usual;
+ * constants defined in the model (e.g. const double delta1=1.0) have their
+ * definition replaced by the value, so constants defined in terms of them
+ * follow. The parsed model is copied, not modified, so one parse can serve
+ * any number of assignments.
+ */
+public class ModelConstants {
+
+    /**
+     * Parses "name=value" strings, keeping their order; a later value for
+     * the same name replaces an earlier one
+     * @throws IllegalArgumentException if a string has no '=' or no name
+     */
+    public static Map<String, String> parse(List<String> assignments) {
+        Map<String, String> values = new LinkedHashMap<>();
+        for (String assignment : assignments) {
+            int eq = assignment.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Constant assignment \"" + assignment + "\" is not of the form name=value");
+            }
+            values.put(assignment.substring(0, eq).trim(), assignment.substring(eq + 1).trim());
+        }
+        return values;
+    }
+
+    /**
+     * @param model  parsed model
+     * @param values constant name to value, as text
+     * @return copy of the model with the constants set and all constant
+     *         values re-evaluated
+     * @throws PrismLangException if the model has no such constant or a
+     *         value does not match its type
+     */
+    public static ModulesFile apply(ModulesFile model, Map<String, String> values) throws PrismException {
+        ModulesFile copy = (ModulesFile) model.deepCopy();
+        ConstantList constants = copy.getConstantList();
+        Values undefined = (model.getUndefinedConstantValues() != null)
+                ? new Values(model.getUndefinedConstantValues()) : new Values();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            String name = entry.getKey();
+            int index = constants.getConstantIndex(name);
+            if (index < 0) {
+                throw new PrismLangException("Model has no constant \"" + name + "\"");
+            }
+            Type type = constants.getConstantType(index);
+            Object value = parseValue(name, entry.getValue(), type);
+            if (constants.getConstant(index) == null) {
+                undefined.setValue(name, value);
+            } else {
+                constants.setConstant(index, new ExpressionLiteral(type, value));
+            }
+        }
+        copy.setSomeUndefinedConstants(undefined);
+        return copy;
+    }
+
+    /**
+     * Converts a value to the declared type of a constant
+     */
+    static Object parseValue(String name, String text, Type type) throws PrismLangException {
+        try {
+            if (type instanceof TypeInt) {
+                return Integer.parseInt(text);
+            }
+            if (type instanceof TypeDouble) {
+                return Double.parseDouble(text);
+            }
+        } catch (NumberFormatException e) {
+            throw new PrismLangException("Invalid value \"" + text + "\" for constant " + name + " of type " + type);
+        }
+        if (type instanceof TypeBool) {
+            if (text.equals("true") || text.equals("false")) {
+                return Boolean.parseBoolean(text);
+            }
+            throw new PrismLangException("Invalid value \"" + text + "\" for constant " + name + " of type bool");
+        }
+        throw new PrismLangException("Cannot set constant " + name + " of type " + type);
+    }
+
+}
@@ -0,0 +1,113 @@
+package imsam.simulation;
+
+import java.util.stream.IntStream;
+
+import org.apache.logging.log4j.Logger;
+
+import imsam.Main;
+import imsam.probability.RandomStream;
+
+/**
+ * Path weight of the 'modulo' heuristic (Thomas Prouty contribution, for
+ * Senior Project).
+ *
+ * For a path with expected dwell times d_1..d_n, the delays of the path
+ * are resampled numSamples times as X_j ~ Exp(mean d_j), folded into
+ * [0, Tmax) by X_j mod Tmax. The weight is the fraction of resampled paths
+ * whose folded delays sum to less than Tmax, times the probability
+ * prod_j (1 - exp(-Tmax/d_j)) that every X_j is below Tmax.
+ *
+ * The product does not depend on the resample, so it is computed once per
+ * path, and every resample stops as soon as its sum reaches Tmax. Nothing
+ * is allocated per path unless the parallel split is enabled.
+ *
+ * Instances hold no random state and may be shared between threads.
+ */
+public class ModuloHeuristic {
+
+    final static Logger logger = Main.getLogger(ModuloHeuristic.class);
+
+    // Number of independent streams for the parallel split; fixed so the
+    // result does not depend on the number of cores
+    static final int CHUNKS = 16;
+
+    private final double  tmax;
+    private final double  gamma;
+    private final int     numSamples;
+    private final boolean parallel;
+
+    /**
+     * @param tmax       time bound of the property
+     * @param gamma      stretch parameter: paths with an expected duration
+     *                   outside [tmax/gamma, tmax*gamma] get weight 1
+     * @param numSamples number of resampled paths per weight
+     * @param parallel   split the resamples over the common fork-join pool
+     */
+    public ModuloHeuristic(double tmax, double gamma, int numSamples, boolean parallel) {
+        this.tmax       = tmax;
+        this.gamma      = gamma;
+        this.numSamples = numSamples;
+        this.parallel   = parallel;
+    }
+
+    /**
+     * @param dwellTimes expected dwell time of every state on the path
+     * @param random     stream to draw the resamples from
+     * @return modulo weight of the path
+     */
+    public double weight(DoubleArrayList dwellTimes, RandomStream random) {
+        double totalDwellTime = dwellTimes.sum();
+        if (totalDwellTime < tmax/gamma || totalDwellTime > tmax*gamma) {
+            return 1;
+        }
+
+        double fxProduct = 1.0;
+        for (int j = 0; j < dwellTimes.size(); j++) {
+            fxProduct *= 1.0 - Math.exp(-tmax/dwellTimes.get(j));
+        }
+        if (logger.isTraceEnabled()) {
+            logger.trace("Modulo: dwellTimes = {} FX product {}", dwellTimes, fxProduct);
+        }
+        if (fxProduct == 0.0) {
+            return 0.0;
+        }
+
+        long hits;
+        if (parallel) {
+            RandomStream[] streams = new RandomStream[CHUNKS];
+            for (int c = 0; c < CHUNKS; c++) {
+                streams[c] = random.split();
+            }
+            hits = IntStream.range(0, CHUNKS).parallel()
+                    .mapToLong(c -> countHits(streams[c], dwellTimes,
+                            (int) ((long) numSamples * (c + 1) / CHUNKS - (long) numSamples * c / CHUNKS)))
+                    .sum();
+        } else {
+            hits = countHits(random, dwellTimes, numSamples);
+        }
+        return fxProduct * hits / numSamples;
+    }
+
+    /**
+     * @return number of resampled paths, out of count, whose delays modulo
+     *         tmax sum to less than tmax
+     */
+    private long countHits(RandomStream random, DoubleArrayList dwellTimes, int count) {
+        int pathLength = dwellTimes.size();
+        long hits = 0;
+        for (int i = 0; i < count; i++) {
+            double pathTime = 0.0;
+            for (int j = 0; j < pathLength && pathTime < tmax; j++) {
+                double dwellTime = dwellTimes.get(j);
+                if (dwellTime != 0) {
+                    pathTime += (dwellTime*(-Math.log(1.0 - random.nextDouble()))) % tmax;
+                }
+            }
+            if (pathTime < tmax) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+}
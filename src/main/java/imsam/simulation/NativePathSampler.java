@@ -0,0 +1,223 @@
+//==============================================================================
+//  NativePathSampler: weighted SSA on a compiled ReactionNetwork.
+//    Runs the same algorithm as PrismPathSampler, but on an int[] state
+//    and flat rate arrays instead of PRISM's SimulatorEngine.
+
+package imsam.simulation;
+
+import java.util.*;
+import java.lang.Math;
+
+import org.apache.logging.log4j.Logger;
+
+import imsam.ExtendedWSSA;
+import imsam.Main;
+
+import prism.PrismException;
+
+/**
+ * Samples weighted SSA paths of a compiled reaction network. The network
+ * is shared read-only; the state and rate buffers belong to this sampler.
+ */
+public class NativePathSampler extends PathSampler {
+
+    final static Logger logger = Main.getLogger(NativePathSampler.class);
+
+    public final ReactionNetwork network;
+
+    private final int[]    state;
+    private final double[] nativeRates;
+    private final double[] transitionRates;
+
+    // Rate sums of the current state, maintained incrementally
+    private double total_rate;
+    private double modified_total_rate;
+    private int    numTransitions;
+    private int    stepsSinceResum;
+
+    // Bias table bin of the current state, with --bias-variable
+    private int    bin;
+
+    // Steps between full recomputations of the rates
+    static final int RESUM_INTERVAL = 1000;
+
+    /**
+     * @param options simulation parameters (Tmax, modulo settings, ...)
+     * @param network compiled model, shared read-only between workers
+     * @param seed    seed of the run
+     */
+    public NativePathSampler(ExtendedWSSA options, ReactionNetwork network, long seed) {
+	super(options, seed);
+	this.network    = network;
+	state           = new int[network.numSpecies];
+	nativeRates     = new double[network.numReactions];
+	transitionRates = new double[network.numReactions];
+	if (options.labelCacheSize > 0) {
+	    objectiveCache  = network.labelCache(network.objective, options.labelCacheSize);
+	    constraintCache = network.labelCache(network.constraint, options.labelCacheSize);
+	}
+    }
+
+    @Override
+    public boolean indicatorFunction() {
+	boolean reached = (objectiveCache != null)
+	    ? objectiveCache.evaluate(network.objective, state)
+	    : network.objective.evaluateBoolean(state);
+	if (logger.isTraceEnabled())
+	    logger.trace(reached ? "Indicator satisfied" : "Objective NOT reached");
+	return reached;
+    }
+
+    int makeTransition(double modified_total_rate) {
+	if (!timePhases)
+	    return selector.select(rng.nextDouble(modified_total_rate));
+	long start = System.nanoTime();
+	int offset = selector.select(rng.nextDouble(modified_total_rate));
+	selectionNanos += System.nanoTime() - start;
+	return offset;
+    }
+
+    /**
+     * Evaluates the constraint in the state reached by firing reaction j
+     */
+    private boolean constraintAfter(int j) {
+	if (!timePhases)
+	    return network.constraintAfter(j, state, constraintCache);
+	long start = System.nanoTime();
+	boolean satisfied = network.constraintAfter(j, state, constraintCache);
+	constraintNanos += System.nanoTime() - start;
+	return satisfied;
+    }
+
+    /**
+     * Recomputes the native and biased rate of reaction j in the current state
+     */
+    private void computeRates(int j) {
+	double r = network.propensity(j, state);
+	nativeRates[j] = r;
+	// Keep the reaction only if the constraint holds in its target state:
+	transitionRates[j] = (r > 0 && constraintAfter(j)) ? r * predilection(j) : 0.0;
+    }
+
+    /**
+     * Predilection of reaction j in the current state: from the bias
+     * table if there is one, unless the model gives a formula
+     */
+    private double predilection(int j) {
+	if (bias == null || network.predilectionFormulas[j] != null)
+	    return network.predilection(j, state);
+	return bias.get(bin, network.actionIndices[j]);
+    }
+
+    /**
+     * Predilection index of reaction j for the cross-entropy tally
+     */
+    private int tallyCell(int j) {
+	return (bias != null) ? bias.cell(bin, network.actionIndices[j]) : network.actionIndices[j];
+    }
+
+    /**
+     * Recomputes all rates and their sums from scratch
+     */
+    private void computeAllRates() {
+	if (bias != null)
+	    bin = bias.bin(state[bias.varIndex]);
+	total_rate          = 0.0;
+	modified_total_rate = 0.0;
+	numTransitions      = 0;
+	for (int j = 0; j < network.numReactions; j++) {
+	    computeRates(j);
+	    if (nativeRates[j] > 0)
+		numTransitions++;
+	    total_rate          += nativeRates[j];
+	    modified_total_rate += transitionRates[j];
+	}
+	selector.reset(transitionRates, network.numReactions);
+	stepsSinceResum = 0;
+    }
+
+    /**
+     * Recomputes only the rates that firing a reaction can have changed,
+     * and updates the sums by the difference
+     */
+    private void updateRates(int fired) {
+	for (int d = network.dependentsStart[fired]; d < network.dependentsStart[fired+1]; d++) {
+	    int    j            = network.dependents[d];
+	    double oldRate      = nativeRates[j];
+	    double oldTransRate = transitionRates[j];
+	    computeRates(j);
+	    if (oldRate > 0)
+		numTransitions--;
+	    if (nativeRates[j] > 0)
+		numTransitions++;
+	    total_rate          += nativeRates[j] - oldRate;
+	    modified_total_rate += transitionRates[j] - oldTransRate;
+	    selector.update(j, transitionRates[j]);
+	}
+    }
+
+    /**
+     * Same algorithm as PrismPathSampler.simulate(): disabled reactions
+     * simply have rate zero, and the simulated time advances by an
+     * exponential delay with the native total rate, as in PRISM.
+     *
+     * Rates are computed in full only at the start of a path and every
+     * RESUM_INTERVAL steps; in between, only the reactions that depend on
+     * the fired one are recomputed (see ReactionNetwork.dependents).
+     */
+    @Override
+    public double simulate() throws PrismException {
+	System.arraycopy(network.initialState, 0, state, 0, network.numSpecies);
+
+	double path_probability     = 1.0;
+	double modified_probability = 1.0;
+	double simTime              = 0.0;
+
+	dwellTimes.clear();
+	computeAllRates();
+
+	// Simulate a path step-by-step:
+	do {
+	    if (numTransitions == 0) {
+		return pathWeight(simTime, path_probability, modified_probability);
+	    }
+
+	    // Add dwell time for this state:
+	    dwellTimes.add(1.0 / total_rate);
+
+	    if (tally != null)
+		for (int j = 0; j < network.numReactions; j++)
+		    if (transitionRates[j] > 0)
+			tally.expose(tallyCell(j), nativeRates[j], modified_total_rate);
+
+	    int offset = makeTransition(modified_total_rate);
+	    if (tally != null)
+		tally.fire(tallyCell(offset));
+
+	    // Accumulate path probability:
+	    path_probability     *= nativeRates[offset] / total_rate;
+	    modified_probability *= transitionRates[offset] / modified_total_rate;
+
+	    network.fire(offset, state);
+	    network.checkBounds(offset, state);
+	    simTime += rng.nextExponential(total_rate);
+	    if (trajectoryRecorder != null)
+		trajectoryRecorder.step(offset, simTime);
+
+	    if (logger.isTraceEnabled())
+		logger.trace("{} {}\t{}", network.actionStrings[offset], network.stateToString(state), simTime);
+
+	    // Bound the floating-point drift of the incremental sums; a new
+	    // bias bin changes the predilection of every reaction:
+	    if (++stepsSinceResum >= RESUM_INTERVAL
+		|| (bias != null && bias.bin(state[bias.varIndex]) != bin))
+		computeAllRates();
+	    else
+		updateRates(offset);
+	    steps++;
+
+	} while (!stoppingCondition(simTime, path_probability));
+
+	return pathWeight(simTime, path_probability, modified_probability);
+    }
+}
@@ -0,0 +1,180 @@
+package imsam.simulation;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the files of PathRecordWriter block by block.
+ *
+ *     try (PathRecordReader reader = new PathRecordReader(file)) {
+ *         for (Object[] block; (block = reader.nextRecords()) != null; ) {
+ *             long[]   paths   = (long[]) block[reader.column("path")];
+ *             double[] weights = (double[]) block[reader.column("weight")];
+ *             ...
+ *         }
+ *     }
+ */
+public class PathRecordReader implements AutoCloseable {
+
+    public final byte kind;
+
+    // Records: column names and types; trajectories: action names
+    private final List<String> names = new ArrayList<>();
+    private final List<Character> types = new ArrayList<>();
+
+    private final DataInputStream in;
+
+    // Paths left in the current block of a trajectories file
+    private int remainingPaths = 0;
+
+    /**
+     * A path of a trajectories file
+     */
+    public static class Trajectory {
+        public final long     path;
+        public final double[] times;
+        public final int[]    actions;
+
+        Trajectory(long path, double[] times, int[] actions) {
+            this.path    = path;
+            this.times   = times;
+            this.actions = actions;
+        }
+    }
+
+    /**
+     * Opens the file and reads its header
+     * @throws IOException if it is not a file of PathRecordWriter
+     */
+    public PathRecordReader(Path file) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+        try {
+            if (in.readInt() != PathRecordWriter.MAGIC) {
+                throw new IOException(file + " is not a path record file");
+            }
+            int version = in.readInt();
+            if (version != PathRecordWriter.VERSION) {
+                throw new IOException(file + " has version " + version + ", expected " + PathRecordWriter.VERSION);
+            }
+            kind = in.readByte();
+            int numNames = in.readInt();
+            for (int i = 0; i < numNames; i++) {
+                String name = in.readUTF();
+                if (kind == PathRecordWriter.RECORDS) {
+                    int colon = name.lastIndexOf(':');
+                    names.add(name.substring(0, colon));
+                    types.add(name.charAt(colon + 1));
+                } else {
+                    names.add(name);
+                }
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return column names of a records file, or action names of a
+     *         trajectories file
+     */
+    public List<String> getNames() {
+        return Collections.unmodifiableList(names);
+    }
+
+    /**
+     * @return index of a column in the blocks of nextRecords()
+     */
+    public int column(String name) {
+        int index = names.indexOf(name);
+        if (index < 0) {
+            throw new IllegalArgumentException("No column " + name + " in " + names);
+        }
+        return index;
+    }
+
+    /**
+     * @return next block of a records file, one array per column (long[],
+     *         int[], double[] or byte[] by type), or null at the end
+     */
+    public Object[] nextRecords() throws IOException {
+        if (kind != PathRecordWriter.RECORDS) {
+            throw new IllegalStateException("Not a records file");
+        }
+        int count;
+        try {
+            count = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        Object[] columns = new Object[names.size()];
+        for (int c = 0; c < columns.length; c++) {
+            switch (types.get(c)) {
+            case 'J': {
+                long[] values = new long[count];
+                for (int i = 0; i < count; i++) values[i] = in.readLong();
+                columns[c] = values;
+                break;
+            }
+            case 'I': {
+                int[] values = new int[count];
+                for (int i = 0; i < count; i++) values[i] = in.readInt();
+                columns[c] = values;
+                break;
+            }
+            case 'D': {
+                double[] values = new double[count];
+                for (int i = 0; i < count; i++) values[i] = in.readDouble();
+                columns[c] = values;
+                break;
+            }
+            case 'B': {
+                byte[] values = new byte[count];
+                in.readFully(values);
+                columns[c] = values;
+                break;
+            }
+            default:
+                throw new IOException("Unknown type " + types.get(c) + " of column " + names.get(c));
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * @return next path of a trajectories file, or null at the end
+     */
+    public Trajectory nextTrajectory() throws IOException {
+        if (kind != PathRecordWriter.TRAJECTORIES) {
+            throw new IllegalStateException("Not a trajectories file");
+        }
+        while (remainingPaths == 0) {
+            try {
+                remainingPaths = in.readInt();
+            } catch (EOFException e) {
+                return null;
+            }
+        }
+        remainingPaths--;
+        long path = in.readLong();
+        int steps = in.readInt();
+        double[] times = new double[steps];
+        int[] actions = new int[steps];
+        for (int i = 0; i < steps; i++) times[i] = in.readDouble();
+        for (int i = 0; i < steps; i++) actions[i] = in.readInt();
+        return new Trajectory(path, times, actions);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+}
@@ -0,0 +1,98 @@
+package imsam.simulation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Binary file of per-path records (--records) or trajectories
+ * (--trajectories), shared by all workers of a run.
+ *
+ * Workers do not write records one by one: each fills its own
+ * PathRecorder and hands over a whole encoded block, which is written to
+ * the file channel under a lock. Blocks of different workers interleave,
+ * so records are not in path order; every record carries its path number.
+ *
+ * All values are big-endian. The file starts with a header
+ *
+ *     int MAGIC, int VERSION, byte kind (RECORDS or TRAJECTORIES),
+ *     int number of names, UTF names
+ *
+ * where the names are the columns of a records file, as "name:type" with
+ * type J (long), I (int), D (double) or B (byte), or the action names of a
+ * trajectories file. Then follow blocks until the end of the file:
+ *
+ *  - records: int count, then each column in order as count values;
+ *  - trajectories: int count, then count paths, each long path number,
+ *    int steps, steps doubles (time after every step) and steps ints
+ *    (action of every step).
+ *
+ * See PathRecordReader.
+ */
+public class PathRecordWriter implements AutoCloseable {
+
+    public static final int  MAGIC   = 0x494d5352; // "IMSR"
+    public static final int  VERSION = 1;
+    public static final byte RECORDS      = 0;
+    public static final byte TRAJECTORIES = 1;
+
+    /**
+     * Columns of a records file, in file order; see PathRecorder.endPath()
+     */
+    public static final List<String> COLUMNS = List.of(
+            "path:J", "weight:D", "likelihood:D", "biasedLikelihood:D", "moduloWeight:D",
+            "steps:I", "time:D", "hit:B");
+
+    public final byte kind;
+
+    private final FileChannel channel;
+
+    /**
+     * Creates the file, replacing any existing one, and writes the header
+     * @param kind        RECORDS or TRAJECTORIES
+     * @param actionNames names of the action numbers of the trajectories;
+     *                    ignored for records
+     */
+    public PathRecordWriter(Path file, byte kind, List<String> actionNames) throws IOException {
+        this.kind = kind;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                   StandardOpenOption.TRUNCATE_EXISTING);
+        List<String> names = (kind == RECORDS) ? COLUMNS : actionNames;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream header = new DataOutputStream(bytes)) {
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeByte(kind);
+            header.writeInt(names.size());
+            for (String name : names) {
+                header.writeUTF(name);
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        buffer.position(buffer.limit());
+        write(buffer);
+    }
+
+    /**
+     * Writes one encoded block (from position 0 to the buffer's position)
+     * and clears the buffer
+     */
+    synchronized void write(ByteBuffer block) throws IOException {
+        block.flip();
+        while (block.hasRemaining()) {
+            channel.write(block);
+        }
+        block.clear();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,178 @@
+package imsam.simulation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Per-worker buffers of the --records and --trajectories files. Records
+ * are kept in primitive columns of BLOCK_SIZE entries and trajectories in
+ * a byte buffer; a full block is encoded and handed to the shared
+ * PathRecordWriter in one write, so the sampler neither formats text nor
+ * takes a lock per path.
+ *
+ * Not thread safe; use one recorder per worker and flush() it when the
+ * worker is done.
+ */
+public class PathRecorder {
+
+    static final int BLOCK_SIZE        = 4096;
+    static final int TRAJECTORY_BUFFER = 1 << 20;
+
+    private final PathRecordWriter records;
+    private final PathRecordWriter trajectories;
+
+    // Record columns, see PathRecordWriter.COLUMNS
+    private final long[]   paths              = new long[BLOCK_SIZE];
+    private final double[] weights            = new double[BLOCK_SIZE];
+    private final double[] likelihoods        = new double[BLOCK_SIZE];
+    private final double[] biasedLikelihoods  = new double[BLOCK_SIZE];
+    private final double[] moduloWeights      = new double[BLOCK_SIZE];
+    private final int[]    lengths            = new int[BLOCK_SIZE];
+    private final double[] times              = new double[BLOCK_SIZE];
+    private final byte[]   hits               = new byte[BLOCK_SIZE];
+    private int numRecords = 0;
+    private final ByteBuffer recordBlock;
+
+    // Steps of the current path, and encoded finished paths
+    private double[]   stepTimes   = new double[64];
+    private int[]      stepActions = new int[64];
+    private int        numSteps    = 0;
+    private int        numPaths    = 0;
+    private ByteBuffer trajectoryBlock;
+
+    /**
+     * @param records      writer of the per-path records, or null
+     * @param trajectories writer of the trajectories, or null
+     */
+    public PathRecorder(PathRecordWriter records, PathRecordWriter trajectories) {
+        this.records      = records;
+        this.trajectories = trajectories;
+        recordBlock     = (records != null) ? ByteBuffer.allocate(4 + BLOCK_SIZE * (6 * 8 + 4 + 1)) : null;
+        trajectoryBlock = (trajectories != null) ? ByteBuffer.allocate(TRAJECTORY_BUFFER) : null;
+        if (trajectoryBlock != null) {
+            trajectoryBlock.putInt(0);
+        }
+    }
+
+    public boolean recordsTrajectories() {
+        return trajectories != null;
+    }
+
+    /**
+     * Records a transition of the current path
+     * @param action action number, see the trajectories file's names
+     * @param time   simulated time after the transition
+     */
+    public void step(int action, double time) {
+        if (numSteps == stepTimes.length) {
+            stepTimes   = Arrays.copyOf(stepTimes, 2 * numSteps);
+            stepActions = Arrays.copyOf(stepActions, 2 * numSteps);
+        }
+        stepTimes[numSteps]   = time;
+        stepActions[numSteps] = action;
+        numSteps++;
+    }
+
+    /**
+     * Records a finished path and starts the next one
+     * @param path             number of the path in the run
+     * @param weight           importance sampling weight
+     * @param likelihood       probability of the path's jump chain under the native rates
+     * @param biasedLikelihood probability under the biased rates
+     * @param moduloWeight     factor of the modulo heuristic or the Tmax
+     *                         cut-off (1 or 0 without --modulo)
+     * @param length           number of transitions
+     * @param time             simulated time at the end of the path
+     * @param hit              true if the objective was reached
+     */
+    public void endPath(long path, double weight, double likelihood, double biasedLikelihood,
+                        double moduloWeight, long length, double time, boolean hit) {
+        if (records != null) {
+            paths[numRecords]             = path;
+            weights[numRecords]           = weight;
+            likelihoods[numRecords]       = likelihood;
+            biasedLikelihoods[numRecords] = biasedLikelihood;
+            moduloWeights[numRecords]     = moduloWeight;
+            lengths[numRecords]           = (int) Math.min(length, Integer.MAX_VALUE);
+            times[numRecords]             = time;
+            hits[numRecords]              = (byte) (hit ? 1 : 0);
+            if (++numRecords == BLOCK_SIZE) {
+                flushRecords();
+            }
+        }
+        if (trajectories != null) {
+            int size = 12 + numSteps * 12;
+            if (trajectoryBlock.remaining() < size) {
+                flushTrajectories();
+                if (trajectoryBlock.remaining() < size) {
+                    trajectoryBlock = ByteBuffer.allocate(4 + size);
+                    trajectoryBlock.putInt(0);
+                }
+            }
+            trajectoryBlock.putLong(path).putInt(numSteps);
+            for (int i = 0; i < numSteps; i++) {
+                trajectoryBlock.putDouble(stepTimes[i]);
+            }
+            for (int i = 0; i < numSteps; i++) {
+                trajectoryBlock.putInt(stepActions[i]);
+            }
+            numPaths++;
+        }
+        numSteps = 0;
+    }
+
+    /**
+     * Writes the buffered records and trajectories
+     */
+    public void flush() {
+        if (records != null && numRecords > 0) {
+            flushRecords();
+        }
+        if (trajectories != null && numPaths > 0) {
+            flushTrajectories();
+        }
+    }
+
+    private void flushRecords() {
+        ByteBuffer block = recordBlock;
+        block.putInt(numRecords);
+        for (int i = 0; i < numRecords; i++) block.putLong(paths[i]);
+        for (int i = 0; i < numRecords; i++) block.putDouble(weights[i]);
+        for (int i = 0; i < numRecords; i++) block.putDouble(likelihoods[i]);
+        for (int i = 0; i < numRecords; i++) block.putDouble(biasedLikelihoods[i]);
+        for (int i = 0; i < numRecords; i++) block.putDouble(moduloWeights[i]);
+        for (int i = 0; i < numRecords; i++) block.putInt(lengths[i]);
+        for (int i = 0; i < numRecords; i++) block.putDouble(times[i]);
+        for (int i = 0; i < numRecords; i++) block.put(hits[i]);
+        write(records, block);
+        numRecords = 0;
+    }
+
+    private void flushTrajectories() {
+        if (numPaths == 0) {
+            return;
+        }
+        trajectoryBlock.putInt(0, numPaths);
+        write(trajectories, trajectoryBlock);
+        if (trajectoryBlock.capacity() > TRAJECTORY_BUFFER) {
+            trajectoryBlock = ByteBuffer.allocate(TRAJECTORY_BUFFER);
+        }
+        trajectoryBlock.putInt(0);
+        numPaths = 0;
+    }
+
+    /**
+     * The samplers only throw PrismException, so a failed write ends the
+     * worker with an unchecked exception
+     */
+    private static void write(PathRecordWriter writer, ByteBuffer block) {
+        try {
+            writer.write(block);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -0,0 +1,285 @@
+package imsam.simulation;
+
+import java.util.*;
+import java.lang.Math;
+
+import org.apache.logging.log4j.Logger;
+
+import imsam.ExtendedWSSA;
+import imsam.Main;
+
+import prism.PrismException;
+
+import imsam.probability.RandomStream;
+
+/**
+ * Common part of the ExtendedWSSA path samplers. A sampler simulates one
+ * weighted SSA path per call to simulate() and owns all of the mutable
+ * state needed to do so, so one instance is used per worker thread.
+ */
+public abstract class PathSampler {
+
+    final static Logger logger = Main.getLogger(PathSampler.class);
+
+    protected final ExtendedWSSA options;
+
+    // Seed of the run; path n is simulated on stream pathSeed(seed, n),
+    // or with --shard I/N on pathSeed(seed, n*N+I), so the shards of a run
+    // sample disjoint sets of its paths
+    protected final long seed;
+    protected final int  shardIndex;
+    protected final int  numShards;
+
+    // Random stream of the current path: transition choices, delays and
+    // modulo resampling
+    protected final RandomStream rng;
+    protected final ModuloHeuristic modulo;
+
+    // State-dependent predilections (--bias-variable), or null
+    protected final BiasTable bias;
+
+    // Picks the next transition in proportion to the biased rates
+    protected final TransitionSelector selector;
+
+    // Expected dwell time of every state on the current path, for the
+    // modulo heuristic; reused from path to path
+    protected final DoubleArrayList dwellTimes = new DoubleArrayList();
+
+    // Number of transitions taken by this sampler so far
+    protected long steps = 0;
+
+    // Transitions per path of the paths sampled so far
+    protected final LengthHistogram pathLengths = new LengthHistogram();
+
+    // Time spent probing the constraint, selecting transitions and
+    // computing modulo weights; only measured with --phase-timing, since
+    // reading the clock costs about as much as a cheap step
+    protected final boolean timePhases;
+    protected long constraintNanos = 0;
+    protected long selectionNanos  = 0;
+    protected long moduloNanos     = 0;
+
+    // Live counters shared with the progress reporter; null unless
+    // --progress, --http-port or --jmx was given
+    protected ProgressCounters progress = null;
+
+    // Cross-entropy statistics of the sampled paths; null except in the
+    // pilot runs of --adapt
+    protected CrossEntropyTally tally = null;
+
+    // Binary output of --records and --trajectories, or null; the
+    // samplers pass every transition to trajectoryRecorder, which is the
+    // same recorder if it keeps trajectories
+    protected PathRecorder recorder = null;
+    protected PathRecorder trajectoryRecorder = null;
+
+    // Memoised objective and constraint values with --label-cache; null
+    // when off, or when the label cannot be keyed on a compact state
+    protected LabelCache objectiveCache  = null;
+    protected LabelCache constraintCache = null;
+
+    // Likelihoods, modulo factor and end of the last path, set by
+    // pathWeight() for the recorder
+    private double lastLikelihood;
+    private double lastBiasedLikelihood;
+    private double lastModuloWeight;
+    private double lastTime;
+    private boolean lastHit;
+
+    /**
+     * @param options simulation parameters (Tmax, modulo settings, ...)
+     * @param seed    seed of the run; all workers of a run share it
+     */
+    protected PathSampler(ExtendedWSSA options, long seed) {
+	this.options = options;
+
+	this.seed    = seed;
+	shardIndex   = options.shardIndex;
+	numShards    = options.numShards;
+	timePhases   = options.phaseTiming;
+	rng          = new RandomStream(RandomStream.pathSeed(seed, 0));
+	modulo       = new ModuloHeuristic(options.TMAX, options.gamma, options.numModuloSamples,
+					   options.moduloParallel);
+	selector     = TransitionSelector.create(options.selector, 16);
+	bias         = options.biasTable;
+    }
+
+    /**
+     * Simulates one path
+     * @return importance sampling weight of the path (0 if the objective was not reached)
+     * @throws PrismException
+     */
+    public abstract double simulate() throws PrismException;
+
+    /**
+     * @return true if the objective label holds in the current state
+     */
+    public abstract boolean indicatorFunction() throws PrismException;
+
+    /**
+     * @return total number of transitions simulated by this sampler
+     */
+    public long getSteps() {
+	return steps;
+    }
+
+    public LengthHistogram getPathLengths() {
+	return pathLengths;
+    }
+
+    public long getConstraintNanos() {
+	return constraintNanos;
+    }
+
+    public long getSelectionNanos() {
+	return selectionNanos;
+    }
+
+    public long getModuloNanos() {
+	return moduloNanos;
+    }
+
+    /**
+     * @return label evaluations answered by the label caches
+     */
+    public long getLabelCacheHits() {
+	return (objectiveCache  != null ? objectiveCache.getHits()  : 0)
+	    +  (constraintCache != null ? constraintCache.getHits() : 0);
+    }
+
+    /**
+     * @return label evaluations the label caches had to compute
+     */
+    public long getLabelCacheMisses() {
+	return (objectiveCache  != null ? objectiveCache.getMisses()  : 0)
+	    +  (constraintCache != null ? constraintCache.getMisses() : 0);
+    }
+
+    public void setProgress(ProgressCounters progress) {
+	this.progress = progress;
+    }
+
+    public void setTally(CrossEntropyTally tally) {
+	this.tally = tally;
+    }
+
+    public void setRecorder(PathRecorder recorder) {
+	this.recorder = recorder;
+	trajectoryRecorder = (recorder != null && recorder.recordsTrajectories()) ? recorder : null;
+    }
+
+    /**
+     * Writes the paths still buffered by the recorder, if any
+     */
+    public void flushRecorder() {
+	if (recorder != null)
+	    recorder.flush();
+    }
+
+    /**
+     * Passes a finished path to the recorder, if any
+     * @param n      number of the path within this sampler's part of the run
+     * @param weight its weight
+     * @param length its number of transitions
+     */
+    void recordPath(long n, double weight, long length) {
+	if (recorder != null)
+	    recorder.endPath(n * numShards + shardIndex, weight, lastLikelihood, lastBiasedLikelihood,
+			     lastModuloWeight, length, lastTime, lastHit);
+    }
+
+    /**
+     * Simulates paths and accumulates their weights
+     * @param from     number of the first path of the run to simulate (inclusive)
+     * @param to       number of the last path (exclusive)
+     * @param stats    accumulator for the weights
+     * @param retained if not null, every weight is also appended here, in order
+     * @throws PrismException
+     */
+    public void sample(long from, long to, SampleStatistics stats, DoubleArrayList retained)
+	throws PrismException {
+	for (long n = from; n < to; n++) {
+	    startPath(n);
+	    long before = steps;
+	    double weight = simulate();
+	    if (tally != null)
+		tally.endPath(weight);
+	    pathLengths.add(steps - before);
+	    recordPath(n, weight, steps - before);
+	    stats.add(weight);
+	    if (progress != null)
+		progress.add(weight, steps - before);
+	    if (retained != null)
+		retained.add(weight);
+	    if (logger.isDebugEnabled())
+		logger.debug("=================");
+	}
+    }
+
+    /**
+     * Switches to the random stream of path number n of the run, so the
+     * path does not depend on which worker simulates it
+     */
+    public void startPath(long n) {
+	rng.reseed(RandomStream.pathSeed(seed, n * numShards + shardIndex));
+	if (tally != null)
+	    tally.startPath();
+    }
+
+    public boolean stoppingCondition(double t, double path_probability) throws PrismException {
+	// path_probability currently not used
+	if ((t > options.TMAX) && !options.useModulo) {
+	    if (logger.isTraceEnabled())
+		logger.trace("Path time {} exceeds {}", t, options.TMAX);
+	    return true;
+	}
+	if ((t > options.rho*options.TMAX) && options.useModulo) {
+	    if (logger.isTraceEnabled())
+		logger.trace("Path time {} exceeds {}", t, options.rho*options.TMAX);
+	    return true;
+	}
+	if (indicatorFunction())
+	    return true;
+	else
+	    return false;
+    }
+
+    double moduloWeight(DoubleArrayList dwellTimes) {
+	if (!timePhases)
+	    return modulo.weight(dwellTimes, rng);
+	long start = System.nanoTime();
+	double weight = modulo.weight(dwellTimes, rng);
+	moduloNanos += System.nanoTime() - start;
+	return weight;
+    }
+
+    /**
+     * Weight of a finished path
+     * @param simTime              simulated time of the path
+     * @param path_probability     probability of the path under the native rates
+     * @param modified_probability probability of the path under the biased rates
+     */
+    double pathWeight(double simTime, double path_probability, double modified_probability)
+	throws PrismException {
+	lastLikelihood       = path_probability;
+	lastBiasedLikelihood = modified_probability;
+	lastTime             = simTime;
+	lastHit              = indicatorFunction();
+	lastModuloWeight     = 0.0;
+	if (lastHit) {
+	    double mWeight = 1.0;
+	    if (options.useModulo)
+		mWeight = moduloWeight(dwellTimes);
+	    else if (simTime > options.TMAX)
+		mWeight = 0.0;
+	    lastModuloWeight = mWeight;
+	    if (logger.isTraceEnabled())
+		logger.trace("Sample path returning {}", mWeight * path_probability / modified_probability);
+	    return mWeight * path_probability / modified_probability;
+	} else {
+	    if (logger.isTraceEnabled())
+		logger.trace("Sample path returning 0");
+	    return 0;
+	}
+    }
+}
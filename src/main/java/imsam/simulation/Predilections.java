@@ -0,0 +1,162 @@
+package imsam.simulation;
+
+import java.util.Arrays;
+
+import org.apache.logging.log4j.Logger;
+
+import imsam.Main;
+
+import parser.State;
+import parser.Values;
+import parser.ast.Expression;
+import parser.ast.FormulaList;
+import parser.ast.ModulesFile;
+import prism.PrismException;
+import prism.PrismLangException;
+
+/**
+ * wSSA predilections (biasing factors) of a model, resolved once at load
+ * time and indexed by PRISM action index: 0 for unlabelled commands, i
+ * for the i-th synchronisation action (1-indexed, like
+ * SimulatorEngine.getTransitionModuleOrActionIndex).
+ *
+ * A predilection for action [a] is given in the model by a constant
+ * "delta" + a. As an extension, a formula with the same name may be used
+ * instead, in which case the predilection depends on the current state:
+ *
+ *     formula deltaR5 = G_bg < 25 ? 10 : 1;
+ *
+ * Instances are immutable and may be shared between threads.
+ */
+public class Predilections {
+
+    final static Logger logger = Main.getLogger(Predilections.class);
+
+    public static final String PREFIX = "delta";
+
+    private final String[]     actionStrings;
+    private final double[]     constants;
+    private final Expression[] formulas;
+    private final boolean      hasFormulas;
+
+    private Predilections(String[] actionStrings, double[] constants, Expression[] formulas) {
+        this.actionStrings = actionStrings;
+        this.constants     = constants;
+        this.formulas      = formulas;
+        boolean any = false;
+        for (Expression formula : formulas) {
+            any |= (formula != null);
+        }
+        this.hasFormulas = any;
+    }
+
+    /**
+     * Reads the delta* constants and formulas of a model
+     * @param modulesFile parsed model with all constant values defined
+     */
+    public static Predilections fromModel(ModulesFile modulesFile) throws PrismException {
+        int numActions = modulesFile.getNumSynchs() + 1;
+        String[] actionStrings = new String[numActions];
+        actionStrings[0] = "[]";
+        for (int a = 1; a < numActions; a++) {
+            actionStrings[a] = "[" + modulesFile.getSynch(a - 1) + "]";
+        }
+        double[] constants = new double[numActions];
+        Arrays.fill(constants, 1.0);
+        Expression[] formulas = new Expression[numActions];
+
+        Values clist = modulesFile.getConstantValues();
+        for (int i = 0; i < clist.getNumValues(); i++) {
+            int a = actionIndex(actionStrings, clist.getName(i));
+            if (a >= 0) {
+                constants[a] = ((Number) clist.getValue(i)).doubleValue();
+                logger.trace("Predilection for " + actionStrings[a] + " = " + constants[a]);
+            }
+        }
+
+        FormulaList flist = modulesFile.getFormulaList();
+        for (int i = 0; i < flist.size(); i++) {
+            int a = actionIndex(actionStrings, flist.getFormulaName(i));
+            if (a >= 0) {
+                formulas[a] = (Expression) flist.getFormula(i).deepCopy()
+                        .replaceConstants(clist)
+                        .simplify();
+                logger.trace("Predilection for " + actionStrings[a] + " = " + formulas[a]);
+            }
+        }
+        return new Predilections(actionStrings, constants, formulas);
+    }
+
+    /**
+     * @return action index for a delta* name, or -1 if the name is not a
+     *         predilection or there is no such action
+     */
+    private static int actionIndex(String[] actionStrings, String name) {
+        if (!name.startsWith(PREFIX)) {
+            return -1;
+        }
+        return Arrays.asList(actionStrings).indexOf("[" + name.substring(PREFIX.length()) + "]");
+    }
+
+    /**
+     * @param constants new constant predilection of every action
+     * @return predilections with the given constants and the same formulas
+     */
+    public Predilections withConstants(double[] constants) {
+        if (constants.length != actionStrings.length) {
+            throw new IllegalArgumentException("Expected " + actionStrings.length + " predilections, got " + constants.length);
+        }
+        return new Predilections(actionStrings, constants.clone(), formulas);
+    }
+
+    public int getNumActions() {
+        return actionStrings.length;
+    }
+
+    public String getActionString(int actionIndex) {
+        return actionStrings[actionIndex];
+    }
+
+    /**
+     * @return true if at least one predilection is a state-dependent formula
+     */
+    public boolean hasFormulas() {
+        return hasFormulas;
+    }
+
+    /**
+     * Constant predilection of an action; 1 if the model defines none
+     */
+    public double getConstant(int actionIndex) {
+        return constants[actionIndex];
+    }
+
+    /**
+     * @return copy of the constant predilections of all actions
+     */
+    public double[] getConstants() {
+        return constants.clone();
+    }
+
+    /**
+     * State-dependent predilection of an action, or null if it is constant
+     */
+    public Expression getFormula(int actionIndex) {
+        return formulas[actionIndex];
+    }
+
+    /**
+     * Predilection of an action in the given state
+     * @param actionIndex action index as returned by getTransitionModuleOrActionIndex
+     *                    (negative values denote unlabelled commands)
+     * @param state       current state, only used by formula predilections
+     */
+    public double get(int actionIndex, State state) throws PrismLangException {
+        int a = Math.max(actionIndex, 0);
+        if (formulas[a] != null) {
+            return formulas[a].evaluateDouble(state);
+        }
+        return constants[a];
+    }
+
+}
@@ -0,0 +1,300 @@
+//==============================================================================
+//  PrismPathSampler: one worker of the ExtendedWSSA experiment.
+//    Each worker owns its own model generator, simulator engine and
+//    random number streams, so several workers can sample paths of the
+//    same model concurrently.
+//
+// Based on the path sampling code originally in ExtendedWSSA.
+
+package imsam.simulation;
+
+import java.util.*;
+import java.lang.Math;
+
+import org.apache.logging.log4j.Logger;
+
+import imsam.ExtendedWSSA;
+import imsam.Main;
+
+import parser.State;
+import parser.VarList;
+import parser.ast.Expression;
+import parser.ast.LabelList;
+import parser.ast.ModulesFile;
+
+import prism.Prism;
+import prism.PrismException;
+import prism.PrismLangException;
+import prism.ModelGenerator;
+
+import simulator.ModulesFileModelGenerator;
+import simulator.SimulatorEngine;
+
+/**
+ * Samples weighted SSA paths of a PRISM model on a private
+ * SimulatorEngine instance.
+ */
+public class PrismPathSampler extends PathSampler {
+
+    final static Logger logger = Main.getLogger(PrismPathSampler.class);
+
+    public final SimulatorEngine sim;
+    public final ModelGenerator info;
+
+    private final Predilections predilections;
+
+    // Per-step rate buffers, grown to the largest out-degree seen so far;
+    // transitionActions holds the action index (or bias table cell) of
+    // the allowed transitions, for the cross-entropy tally
+    private double[] nativeRates       = new double[16];
+    private double[] transitionRates   = new double[16];
+    private int[]    transitionActions = new int[16];
+
+    // The "objective" label, resolved to its index in the model generator
+    // and, for the label cache, compiled like the constraint
+    private final int        objectiveIndex;
+    private final Expression objective;
+
+    // The "constraint" label, evaluated directly on successor states
+    private final Expression constraint;
+    private final boolean    constraintIsConstant;
+    private final boolean    constraintValue;
+
+    /**
+     * Creates a worker with its own model generator and simulator for
+     * an already parsed (and constant-resolved) model.
+     * @param options      simulation parameters (Tmax, modulo settings, ...)
+     * @param prism        PRISM engine the model was loaded with
+     * @param modulesFile  parsed model, shared read-only between workers
+     * @param predilections delta predilections by action index, shared read-only
+     * @param seed         seed of the run
+     */
+    public PrismPathSampler(ExtendedWSSA options, Prism prism, ModulesFile modulesFile,
+			    Predilections predilections, long seed) throws PrismException {
+	super(options, seed);
+	this.predilections = predilections;
+
+	ModulesFileModelGenerator modelGen = new ModulesFileModelGenerator(modulesFile, prism);
+	sim = new SimulatorEngine(prism);
+	sim.loadModel(modelGen, modelGen);
+	info = modelGen;
+
+	// Only the current state is needed by the sampler, so by default the
+	// path history is not recorded
+	if (options.fullPath)
+	    sim.createNewPath();
+	else
+	    sim.createNewOnTheFlyPath();
+
+	objective            = compileLabel(modulesFile, "objective");
+	objectiveIndex       = modulesFile.getLabelList().getLabelIndex("objective");
+	constraint           = compileLabel(modulesFile, "constraint");
+	constraintIsConstant = constraint.isConstant();
+	constraintValue      = constraintIsConstant && constraint.evaluateBoolean(new State(0));
+
+	if (options.labelCacheSize > 0) {
+	    VarList varList = modulesFile.createVarList();
+	    objectiveCache  = labelCache(objective, varList, options.labelCacheSize);
+	    if (!constraintIsConstant)
+		constraintCache = labelCache(constraint, varList, options.labelCacheSize);
+	}
+    }
+
+    /**
+     * @return a cache of the values of a label, or null if the label
+     *         cannot be compiled to find the variables it reads, or their
+     *         ranges do not fit in a key
+     */
+    static LabelCache labelCache(Expression label, VarList varList, int capacity) {
+	int numVars = varList.getNumVars();
+	int[] lows  = new int[numVars];
+	int[] highs = new int[numVars];
+	for (int i = 0; i < numVars; i++) {
+	    lows[i]  = varList.getLow(i);
+	    highs[i] = varList.getHigh(i);
+	}
+	BitSet vars = new BitSet(numVars);
+	try {
+	    CompiledExpression.compile(label).collectVariables(vars);
+	} catch (PrismLangException e) {
+	    logger.debug("Not caching label {}: {}", label, e.getMessage());
+	    return null;
+	}
+	return LabelCache.create(vars, lows, highs, capacity);
+    }
+
+    /**
+     * Looks up a label of the model and resolves its constants, so it can
+     * be evaluated on arbitrary states without going through the simulator
+     * @throws PrismLangException if the model has no such label
+     */
+    static Expression compileLabel(ModulesFile modulesFile, String name) throws PrismException {
+	LabelList labels = modulesFile.getLabelList();
+	int index = labels.getLabelIndex(name);
+	if (index < 0)
+	    throw new PrismLangException("Model has no label \"" + name + "\"");
+	return (Expression) labels.getLabel(index).deepCopy()
+	    .replaceConstants(modulesFile.getConstantValues())
+	    .simplify();
+    }
+
+    /**
+     * Evaluates the constraint in the target state of a transition of the
+     * current state, without changing the path.
+     */
+    boolean constraintSatisfied(int idx) throws PrismException {
+	if (constraintIsConstant)
+	    return constraintValue;
+	if (!timePhases)
+	    return evaluateConstraint(sim.computeTransitionTarget(idx));
+	long start = System.nanoTime();
+	boolean satisfied = evaluateConstraint(sim.computeTransitionTarget(idx));
+	constraintNanos += System.nanoTime() - start;
+	return satisfied;
+    }
+
+    private boolean evaluateConstraint(State target) throws PrismLangException {
+	if (constraintCache != null)
+	    return constraintCache.evaluate(constraint, target);
+	return constraint.evaluateBoolean(target);
+    }
+
+    @Override
+    public boolean indicatorFunction() throws PrismException {
+	boolean reached = (objectiveCache != null)
+	    ? objectiveCache.evaluate(objective, sim.getCurrentState())
+	    : info.isLabelTrue(objectiveIndex);
+	if (logger.isTraceEnabled())
+	    logger.trace(reached ? "Indicator satisfied" : "Objective NOT reached");
+	return reached;
+    }
+
+    private void ensureCapacity(int numTransitions) {
+	if (numTransitions > nativeRates.length) {
+	    int capacity      = Math.max(numTransitions, 2 * nativeRates.length);
+	    nativeRates       = new double[capacity];
+	    transitionRates   = new double[capacity];
+	    transitionActions = new int[capacity];
+	}
+    }
+
+    int makeTransition(double total_rate, double modified_total_rate, int numTransitions) throws PrismException {
+	////////////////////////////////////////////////////
+	// Execute the transition:
+	////////////////////////////////////////////////////
+	long start = timePhases ? System.nanoTime() : 0;
+	selector.reset(transitionRates, numTransitions);
+	int offset = selector.select(rng.nextDouble(modified_total_rate));
+	if (timePhases)
+	    selectionNanos += System.nanoTime() - start;
+
+	// Draw the delay from our own stream rather than the simulator's,
+	// so paths are reproducible from the seed:
+	sim.manualTransition(offset, rng.nextExponential(total_rate));
+	return offset;
+    }
+
+    /**
+     * ABSTRACT generalization:
+     * 1. initialize the path, then step time
+     * 2. loop over all transitions from current state, check constraint
+     * 3. zero-out transitions that violate the constraint
+     * 4. check stopping conditions
+     *
+     * @return Path probability
+     * @throws PrismException
+     */
+    @Override
+    public double simulate() throws PrismException {
+	sim.initialisePath(null);
+
+	double path_probability     = 1.0;
+	double modified_probability = 1.0;
+	double total_rate           = 0.0;
+	double modified_total_rate  = 0.0;
+
+	double mu     = 0;
+	double sigma2 = 0;
+
+	dwellTimes.clear();
+
+	// Simulate a path step-by-step:
+	do {
+	    // Initialize variables:
+	    total_rate          = 0.0;
+	    modified_total_rate = 0.0;
+
+	    // Loop through the possible transitions from the current state:
+	    int numTransitions = sim.getNumTransitions();
+
+	    if (numTransitions > 0) {
+		ensureCapacity(numTransitions);
+		// Only needed by state-dependent (formula or binned) predilections
+		State state = (predilections.hasFormulas() || bias != null) ? sim.getCurrentState() : null;
+		int   bin   = (bias != null) ? bias.bin((Integer) state.varValues[bias.varIndex]) : 0;
+
+		// ++++++++++++++++++++++++++++++++++++++++++++++++++++
+		// Adjust Transition Rates
+		// ++++++++++++++++++++++++++++++++++++++++++++++++++++
+
+		for (int idx = 0; idx < numTransitions; idx++) {
+		    double rate = sim.getTransitionProbability(idx);
+		    double r    = 0.0;
+
+		    // If the user constraint holds in the target state,
+		    // keep this transition and apply wSSA weights;
+		    // otherwise the edge is suppressed (rate 0):
+		    if (constraintSatisfied(idx)) {
+			int    action = Math.max(sim.getTransitionModuleOrActionIndex(idx), 0);
+			double delta  = (bias != null && predilections.getFormula(action) == null)
+			    ? bias.get(bin, action) : predilections.get(action, state);
+			if (logger.isTraceEnabled())
+			    logger.trace("Applying delta {} to {}", delta, predilections.getActionString(action));
+			r = rate * delta;
+			transitionActions[idx] = (bias != null) ? bias.cell(bin, action) : action;
+		    }
+
+		    // Accumulate native and modified transition rates:
+		    nativeRates[idx]     = rate;
+		    transitionRates[idx] = r;
+		    total_rate          += rate;
+		    modified_total_rate += r;
+		}
+		// ++++++++++++++++++++++++++++++++++++++++++++++++++++
+
+		// Add dwell time for this state:
+		dwellTimes.add(1.0 / total_rate);
+
+		if (tally != null)
+		    for (int idx = 0; idx < numTransitions; idx++)
+			if (transitionRates[idx] > 0)
+			    tally.expose(transitionActions[idx], nativeRates[idx], modified_total_rate);
+
+		int offset = makeTransition(total_rate, modified_total_rate, numTransitions);
+		if (tally != null)
+		    tally.fire(transitionActions[offset]);
+		if (trajectoryRecorder != null)
+		    trajectoryRecorder.step((bias != null) ? transitionActions[offset] % bias.numActions
+					    : transitionActions[offset], sim.getTotalTimeForPath());
+
+		if (logger.isTraceEnabled())
+		    logger.trace("{}\t{}", sim.getCurrentState(), sim.getTotalTimeForPath());
+
+		// Accumulate path probability:
+		mu     += 1.0 / nativeRates[offset];
+		sigma2 += mu * mu;
+
+		double p_transition   = nativeRates[offset] / total_rate;
+		path_probability     *= p_transition;
+		double p_modified     = transitionRates[offset] / modified_total_rate;
+		modified_probability *= p_modified;
+		steps++;
+	    }
+	    else {
+		return pathWeight(sim.getTotalTimeForPath(), path_probability, modified_probability);
+	    }
+	} while (!stoppingCondition(sim.getTotalTimeForPath(), path_probability));
+
+	return pathWeight(sim.getTotalTimeForPath(), path_probability, modified_probability);
+    }
+}
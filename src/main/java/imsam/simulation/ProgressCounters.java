@@ -0,0 +1,111 @@
+package imsam.simulation;
+
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live counters of a running experiment, shared by all workers and read
+ * by the progress reporter while sampling goes on.
+ *
+ * The adders are striped, so workers updating them after every path do
+ * not contend with each other or with readers. A read is not an atomic
+ * snapshot: a path finishing during the read may be counted in some sums
+ * and not in others, which is harmless for progress figures. The final
+ * estimate always comes from the workers' SampleStatistics.
+ *
+ * A resumed run starts from the statistics of its checkpoint, so runs,
+ * estimate and interval cover the whole run; getSessionPaths() and the
+ * steps only count the paths of this process, for the rates.
+ */
+public class ProgressCounters {
+
+    private final LongAdder   paths        = new LongAdder();
+    private final LongAdder   steps        = new LongAdder();
+    private final LongAdder   nonZeroCount = new LongAdder();
+    private final DoubleAdder sum          = new DoubleAdder();
+    private final DoubleAdder sumOfSquares = new DoubleAdder();
+
+    // Paths of a resumed checkpoint, as power sums
+    private final long   resumedPaths;
+    private final long   resumedNonZeroCount;
+    private final double resumedSum;
+    private final double resumedSumOfSquares;
+
+    public ProgressCounters() {
+        this(new SampleStatistics());
+    }
+
+    /**
+     * @param resumed statistics of the paths simulated before a resume;
+     *                copied, so it may go on changing
+     */
+    public ProgressCounters(SampleStatistics resumed) {
+        long   n    = resumed.getCount();
+        double mean = (n > 0) ? resumed.getMean() : 0.0;
+        resumedPaths        = n;
+        resumedNonZeroCount = resumed.getNonZeroCount();
+        resumedSum          = n * mean;
+        resumedSumOfSquares = (n > 0) ? resumed.getM2() + n * mean * mean : 0.0;
+    }
+
+    /**
+     * Records one finished path
+     * @param weight     importance sampling weight of the path
+     * @param pathLength number of transitions of the path
+     */
+    public void add(double weight, long pathLength) {
+        paths.increment();
+        steps.add(pathLength);
+        // Counted like SampleStatistics.add(), which the final report,
+        // the checkpoint and the stopping rule use
+        if (weight > 0) {
+            nonZeroCount.increment();
+        }
+        if (weight != 0) {
+            sum.add(weight);
+            sumOfSquares.add(weight * weight);
+        }
+    }
+
+    /**
+     * @return paths of the whole run, including those of a resumed checkpoint
+     */
+    public long getPaths() {
+        return resumedPaths + paths.sum();
+    }
+
+    /**
+     * @return paths simulated since this process started
+     */
+    public long getSessionPaths() {
+        return paths.sum();
+    }
+
+    public long getSteps() {
+        return steps.sum();
+    }
+
+    public long getNonZeroCount() {
+        return resumedNonZeroCount + nonZeroCount.sum();
+    }
+
+    public double getMean() {
+        long n = getPaths();
+        return (n > 0) ? (resumedSum + sum.sum()) / n : Double.NaN;
+    }
+
+    /**
+     * Variance of the mean from the raw power sums; less accurate than
+     * SampleStatistics, but good enough for a running confidence interval
+     */
+    public double getVarianceOfMean() {
+        long n = getPaths();
+        if (n < 2) {
+            return Double.NaN;
+        }
+        double s = resumedSum + sum.sum();
+        double variance = (resumedSumOfSquares + sumOfSquares.sum() - s * s / n) / (n - 1);
+        return Math.max(variance, 0.0) / n;
+    }
+
+}
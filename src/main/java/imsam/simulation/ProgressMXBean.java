@@ -0,0 +1,30 @@
+package imsam.simulation;
+
+/**
+ * Management interface of a running experiment, registered as
+ * imsam:type=Progress with --jmx. See ProgressReporter.
+ */
+public interface ProgressMXBean {
+
+    long getCompletedRuns();
+
+    long getSteps();
+
+    long getNonZeroCount();
+
+    double getMean();
+
+    double getHalfWidth();
+
+    double getElapsedSeconds();
+
+    double getPathsPerSecond();
+
+    double getStepsPerSecond();
+
+    /**
+     * @return estimated seconds until sampling stops, or NaN if unknown
+     */
+    double getEtaSeconds();
+
+}
@@ -0,0 +1,257 @@
+package imsam.simulation;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import imsam.ExtendedWSSA;
+import imsam.Main;
+
+/**
+ * Reports the progress of a running experiment from the shared
+ * ProgressCounters: completed runs, running estimate and confidence
+ * interval half-width, throughput and estimated time to completion.
+ *
+ * Depending on the options, the figures are logged every --progress
+ * seconds, served as JSON (/progress) and Prometheus text (/metrics) on
+ * the loopback interface at --http-port, and registered as the MXBean
+ * imsam:type=Progress with --jmx. Everything runs on its own threads and
+ * only reads the counters, so the workers are never blocked.
+ */
+public class ProgressReporter implements ProgressMXBean, AutoCloseable {
+
+    final static Logger logger = Main.getLogger(ProgressReporter.class);
+
+    public static final String OBJECT_NAME = "imsam:type=Progress";
+
+    private final ExtendedWSSA     options;
+    private final ProgressCounters counters;
+    private final double           z;
+    private final long             start = System.nanoTime();
+
+    private ScheduledExecutorService timer  = null;
+    private HttpServer               server = null;
+    private ObjectName               mbeanName = null;
+
+    /**
+     * @param options  run parameters: targets, stopping rule and the
+     *                 --progress, --http-port and --jmx settings
+     * @param counters counters updated by the workers
+     */
+    public ProgressReporter(ExtendedWSSA options, ProgressCounters counters) {
+        this.options  = options;
+        this.counters = counters;
+        this.z        = ExtendedWSSA.inverseCNDF(0.5 + options.confidence / 2);
+    }
+
+    /**
+     * Starts the periodic log, the HTTP endpoint and the MXBean, as
+     * requested by the options
+     * @throws IOException if the HTTP port cannot be bound
+     */
+    public void start() throws IOException {
+        if (options.progressInterval > 0) {
+            timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "progress");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(1, (long) (options.progressInterval * 1000));
+            // The progress lines were asked for explicitly, so they are
+            // logged at LOG_ALWAYS and shown even without -v
+            timer.scheduleAtFixedRate(() -> logger.log(Main.LOG_ALWAYS, toString()), period, period, TimeUnit.MILLISECONDS);
+        }
+        if (options.httpPort > 0) {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), options.httpPort), 0);
+            server.createContext("/progress", exchange ->
+                    respond(exchange, "application/json", toJSON().toString(2)));
+            server.createContext("/metrics", exchange ->
+                    respond(exchange, "text/plain; version=0.0.4", toPrometheus()));
+            server.start();
+            logger.info("Serving progress on http://localhost:" + server.getAddress().getPort() + "/progress");
+        }
+        if (options.jmx) {
+            try {
+                mbeanName = new ObjectName(OBJECT_NAME);
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, mbeanName);
+            } catch (JMException e) {
+                throw new IllegalStateException("Cannot register " + OBJECT_NAME, e);
+            }
+        }
+    }
+
+    /**
+     * Stops reporting; the counters keep their values
+     */
+    @Override
+    public void close() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        if (server != null) {
+            server.stop(0);
+        }
+        if (mbeanName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+            } catch (JMException e) {
+                logger.warn("Cannot unregister " + OBJECT_NAME, e);
+            }
+        }
+    }
+
+    @Override
+    public long getCompletedRuns() {
+        return counters.getPaths();
+    }
+
+    @Override
+    public long getSteps() {
+        return counters.getSteps();
+    }
+
+    @Override
+    public long getNonZeroCount() {
+        return counters.getNonZeroCount();
+    }
+
+    @Override
+    public double getMean() {
+        return counters.getMean();
+    }
+
+    @Override
+    public double getHalfWidth() {
+        return z * Math.sqrt(counters.getVarianceOfMean());
+    }
+
+    @Override
+    public double getElapsedSeconds() {
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    @Override
+    public double getPathsPerSecond() {
+        return counters.getSessionPaths() / getElapsedSeconds();
+    }
+
+    @Override
+    public double getStepsPerSecond() {
+        return getSteps() / getElapsedSeconds();
+    }
+
+    /**
+     * With a fixed number of runs, the time to finish them at the current
+     * rate. With a stopping rule, the time until the interval is expected
+     * to be narrow enough, since the half-width shrinks as 1/sqrt(runs),
+     * or until --max-runs or --max-time, whichever comes first.
+     */
+    @Override
+    public double getEtaSeconds() {
+        long   runs    = getCompletedRuns();
+        double elapsed = getElapsedSeconds();
+        double target  = options.Nruns;
+        if (options.isSequential()) {
+            target = (options.maxRuns < Long.MAX_VALUE) ? options.maxRuns : Double.POSITIVE_INFINITY;
+        }
+        double targetHalfWidth = targetHalfWidth();
+        if (targetHalfWidth > 0 && getNonZeroCount() >= ExtendedWSSA.MIN_NONZERO_SAMPLES) {
+            double ratio = getHalfWidth() / targetHalfWidth;
+            target = Math.min(target, Math.max(runs, runs * ratio * ratio));
+        }
+        double eta = (counters.getSessionPaths() > 0) ? (target - runs) / getPathsPerSecond()
+                                                      : Double.POSITIVE_INFINITY;
+        if (options.isSequential()) {
+            eta = Math.min(eta, options.maxTime - elapsed);
+        }
+        return Double.isFinite(eta) ? Math.max(eta, 0.0) : Double.NaN;
+    }
+
+    /**
+     * @return half-width requested by --rel-error and --conf-width at the
+     *         current estimate, or 0 without a stopping rule
+     */
+    private double targetHalfWidth() {
+        double target = Double.POSITIVE_INFINITY;
+        if (options.relError > 0) {
+            target = Math.min(target, options.relError * getMean());
+        }
+        if (options.confWidth > 0) {
+            target = Math.min(target, options.confWidth / 2);
+        }
+        return Double.isFinite(target) ? target : 0;
+    }
+
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("completedRuns", getCompletedRuns());
+        json.put("steps", getSteps());
+        json.put("nonZeroCount", getNonZeroCount());
+        json.put("mean", RunMetrics.finiteOrNull(getMean()));
+        json.put("halfWidth", RunMetrics.finiteOrNull(getHalfWidth()));
+        json.put("confidence", options.confidence);
+        json.put("elapsedSeconds", getElapsedSeconds());
+        json.put("pathsPerSecond", RunMetrics.finiteOrNull(getPathsPerSecond()));
+        json.put("stepsPerSecond", RunMetrics.finiteOrNull(getStepsPerSecond()));
+        json.put("etaSeconds", RunMetrics.finiteOrNull(getEtaSeconds()));
+        return json;
+    }
+
+    /**
+     * Prometheus text exposition format, one gauge per line
+     */
+    public String toPrometheus() {
+        return "imsam_completed_runs " + getCompletedRuns() + "\n" +
+               "imsam_steps " + getSteps() + "\n" +
+               "imsam_nonzero_samples " + getNonZeroCount() + "\n" +
+               "imsam_mean " + getMean() + "\n" +
+               "imsam_half_width " + getHalfWidth() + "\n" +
+               "imsam_elapsed_seconds " + getElapsedSeconds() + "\n" +
+               "imsam_paths_per_second " + getPathsPerSecond() + "\n" +
+               "imsam_steps_per_second " + getStepsPerSecond() + "\n" +
+               "imsam_eta_seconds " + getEtaSeconds() + "\n";
+    }
+
+    private static void respond(HttpExchange exchange, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public String toString() {
+        long runs = getCompletedRuns();
+        String done = options.isSequential() ? "" : String.format(" (%.1f%%)", 100.0 * runs / options.Nruns);
+        double eta = getEtaSeconds();
+        return String.format("Progress: %d runs%s, estimate %g +/- %g, %.1f paths/s, %.1f steps/s, ETA %s",
+                runs, done, getMean(), getHalfWidth(), getPathsPerSecond(), getStepsPerSecond(),
+                Double.isNaN(eta) ? "unknown" : formatDuration(eta));
+    }
+
+    /**
+     * @return seconds as h:mm:ss
+     */
+    static String formatDuration(double seconds) {
+        long s = (long) Math.ceil(seconds);
+        return String.format("%d:%02d:%02d", s / 3600, (s / 60) % 60, s % 60);
+    }
+
+}
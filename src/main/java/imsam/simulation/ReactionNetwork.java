@@ -0,0 +1,508 @@
+package imsam.simulation;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.apache.logging.log4j.Logger;
+
+import imsam.Main;
+
+import parser.State;
+import parser.VarList;
+import parser.ast.Command;
+import parser.ast.Expression;
+import parser.ast.ExpressionBinaryOp;
+import parser.ast.ExpressionLiteral;
+import parser.ast.ExpressionUnaryOp;
+import parser.ast.ExpressionVar;
+import parser.ast.LabelList;
+import parser.ast.Module;
+import parser.ast.ModulesFile;
+import parser.ast.Update;
+import parser.ast.Updates;
+import parser.type.TypeInt;
+import prism.PrismException;
+import prism.PrismLangException;
+
+/**
+ * A PRISM CTMC compiled into a flat reaction network: species counts are
+ * an int[] state, each reaction is a guard, a propensity function and a
+ * stoichiometry vector. Synchronised commands are combined the same way
+ * PRISM does (conjunction of guards, product of rates, union of updates).
+ *
+ * Only models whose variables are integers and whose updates have the
+ * form x'=x+c are supported; anything else is rejected at compile time
+ * so the caller can fall back to the PRISM engine.
+ *
+ * Instances are immutable and may be shared between threads.
+ */
+public class ReactionNetwork {
+
+    final static Logger logger = Main.getLogger(ReactionNetwork.class);
+
+    public static final String OBJECTIVE_LABEL  = "objective";
+    public static final String CONSTRAINT_LABEL = "constraint";
+
+    // Species
+    public final int      numSpecies;
+    public final String[] speciesNames;
+    public final int[]    initialState;
+    public final int[]    lowerBounds;
+    public final int[]    upperBounds;
+
+    // Reactions
+    public final int                  numReactions;
+    public final String[]             actionStrings;
+    public final int[]                actionIndices;
+    public final CompiledExpression[] guards;
+    public final CompiledExpression[] propensities;
+    public final double[]             predilections;
+    public final CompiledExpression[] predilectionFormulas;     // null where constant
+
+    // Stoichiometry in compressed row form: the species changed by reaction
+    // j are stoichSpecies[stoichStart[j] .. stoichStart[j+1]-1]
+    public final int[] stoichStart;
+    public final int[] stoichSpecies;
+    public final int[] stoichDelta;
+
+    // Labels
+    public final CompiledExpression objective;
+    public final CompiledExpression constraint;
+
+    // Dependency graph in compressed row form: after reaction j fires, only
+    // reactions dependents[dependentsStart[j] .. dependentsStart[j+1]-1]
+    // can have a different propensity, predilection or constraint outcome
+    public final int[] dependentsStart;
+    public final int[] dependents;
+
+
+    private ReactionNetwork(ModulesFile mf, VarList varList, State init,
+                            List<Reaction> reactions, Predilections predilectionTable)
+            throws PrismException {
+        numSpecies   = mf.getNumVars();
+        speciesNames = new String[numSpecies];
+        initialState = new int[numSpecies];
+        lowerBounds  = new int[numSpecies];
+        upperBounds  = new int[numSpecies];
+        for (int i = 0; i < numSpecies; i++) {
+            speciesNames[i] = mf.getVarName(i);
+            initialState[i] = (Integer) init.varValues[i];
+            lowerBounds[i]  = varList.getLow(i);
+            upperBounds[i]  = varList.getHigh(i);
+        }
+
+        numReactions  = reactions.size();
+        actionStrings = new String[numReactions];
+        actionIndices = new int[numReactions];
+        guards        = new CompiledExpression[numReactions];
+        propensities  = new CompiledExpression[numReactions];
+        predilections = new double[numReactions];
+        predilectionFormulas = new CompiledExpression[numReactions];
+        stoichStart   = new int[numReactions + 1];
+        int numEntries = 0;
+        for (Reaction reaction : reactions) {
+            numEntries += reaction.species.size();
+        }
+        stoichSpecies = new int[numEntries];
+        stoichDelta   = new int[numEntries];
+
+        int entry = 0;
+        for (int j = 0; j < numReactions; j++) {
+            Reaction reaction = reactions.get(j);
+            actionStrings[j] = "[" + reaction.action + "]";
+            actionIndices[j] = "".equals(reaction.action) ? 0 : mf.getSynchs().indexOf(reaction.action) + 1;
+            guards[j]        = CompiledExpression.compile(reaction.guard);
+            propensities[j]  = CompiledExpression.compile(reaction.getRate());
+            predilections[j] = predilectionTable.getConstant(actionIndices[j]);
+            Expression formula = predilectionTable.getFormula(actionIndices[j]);
+            if (formula != null) {
+                predilectionFormulas[j] = CompiledExpression.compile(formula);
+            }
+            stoichStart[j]   = entry;
+            for (int k = 0; k < reaction.species.size(); k++) {
+                stoichSpecies[entry] = reaction.species.get(k);
+                stoichDelta[entry]   = reaction.delta.get(k);
+                entry++;
+            }
+        }
+        stoichStart[numReactions] = entry;
+
+        objective  = compileLabel(mf, OBJECTIVE_LABEL);
+        constraint = compileLabel(mf, CONSTRAINT_LABEL);
+
+        dependentsStart = new int[numReactions + 1];
+        dependents      = buildDependencyGraph();
+    }
+
+    /**
+     * Gibson-Bruck style dependency graph: reaction k depends on reaction j
+     * if its guard, rate or predilection reads a species that j changes.
+     * If j changes a species the constraint reads, every reaction depends
+     * on j, since constraintAfter(k) looks at the state after k fires.
+     */
+    private int[] buildDependencyGraph() {
+        BitSet[] reads = new BitSet[numReactions];
+        for (int k = 0; k < numReactions; k++) {
+            reads[k] = new BitSet(numSpecies);
+            guards[k].collectVariables(reads[k]);
+            propensities[k].collectVariables(reads[k]);
+            if (predilectionFormulas[k] != null) {
+                predilectionFormulas[k].collectVariables(reads[k]);
+            }
+        }
+        BitSet constraintReads = new BitSet(numSpecies);
+        constraint.collectVariables(constraintReads);
+
+        List<Integer> edges = new ArrayList<>();
+        BitSet writes = new BitSet(numSpecies);
+        for (int j = 0; j < numReactions; j++) {
+            dependentsStart[j] = edges.size();
+            writes.clear();
+            for (int e = stoichStart[j]; e < stoichStart[j+1]; e++) {
+                writes.set(stoichSpecies[e]);
+            }
+            boolean all = writes.intersects(constraintReads);
+            for (int k = 0; k < numReactions; k++) {
+                if (all || writes.intersects(reads[k])) {
+                    edges.add(k);
+                }
+            }
+            logger.debug("Reaction " + actionStrings[j] + " affects "
+                    + (edges.size() - dependentsStart[j]) + " of " + numReactions + " reactions");
+        }
+        dependentsStart[numReactions] = edges.size();
+        return edges.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+
+    ///////////////////////////////////////////////////////////
+    // State operations
+
+    /**
+     * Native rate of reaction j in the given state, or 0 if disabled
+     */
+    public double propensity(int j, int[] state) {
+        if (!guards[j].evaluateBoolean(state)) {
+            return 0.0;
+        }
+        return propensities[j].evaluate(state);
+    }
+
+    /**
+     * Predilection (wSSA biasing factor) of reaction j in the given state
+     */
+    public double predilection(int j, int[] state) {
+        if (predilectionFormulas[j] != null) {
+            return predilectionFormulas[j].evaluate(state);
+        }
+        return predilections[j];
+    }
+
+    /**
+     * Applies reaction j to the state in place
+     */
+    public void fire(int j, int[] state) {
+        for (int e = stoichStart[j]; e < stoichStart[j+1]; e++) {
+            state[stoichSpecies[e]] += stoichDelta[e];
+        }
+    }
+
+    /**
+     * Reverts reaction j on the state in place
+     */
+    public void unfire(int j, int[] state) {
+        for (int e = stoichStart[j]; e < stoichStart[j+1]; e++) {
+            state[stoichSpecies[e]] -= stoichDelta[e];
+        }
+    }
+
+    /**
+     * Checks the species bounds declared in the model after firing reaction j
+     * @throws PrismException if a species left its declared range
+     */
+    public void checkBounds(int j, int[] state) throws PrismException {
+        for (int e = stoichStart[j]; e < stoichStart[j+1]; e++) {
+            int s = stoichSpecies[e];
+            if (state[s] < lowerBounds[s] || state[s] > upperBounds[s]) {
+                throw new PrismException("Value " + state[s] + " of variable " + speciesNames[s]
+                        + " out of range after reaction " + actionStrings[j]);
+            }
+        }
+    }
+
+    /**
+     * Evaluates the constraint label in the state reached by firing
+     * reaction j, without leaving the state modified.
+     */
+    public boolean constraintAfter(int j, int[] state) {
+        if (constraint.isConstant()) {
+            return constraint.evaluateBoolean(state);
+        }
+        fire(j, state);
+        boolean satisfied = constraint.evaluateBoolean(state);
+        unfire(j, state);
+        return satisfied;
+    }
+
+    /**
+     * Like constraintAfter(j, state), looking the target state up in a
+     * cache of constraint values first
+     */
+    public boolean constraintAfter(int j, int[] state, LabelCache cache) {
+        if (cache == null || constraint.isConstant()) {
+            return constraintAfter(j, state);
+        }
+        fire(j, state);
+        boolean satisfied = cache.evaluate(constraint, state);
+        unfire(j, state);
+        return satisfied;
+    }
+
+    /**
+     * @return a cache of the values of a label on the states of this
+     *         network, or null if it does not read the state or the
+     *         ranges of the variables it reads do not fit in a key
+     */
+    public LabelCache labelCache(CompiledExpression label, int capacity) {
+        BitSet vars = new BitSet(numSpecies);
+        label.collectVariables(vars);
+        return LabelCache.create(vars, lowerBounds, upperBounds, capacity);
+    }
+
+    public String stateToString(int[] state) {
+        StringBuilder builder = new StringBuilder("(");
+        for (int i = 0; i < numSpecies; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(state[i]);
+        }
+        return builder.append(')').toString();
+    }
+
+    //
+    ///////////////////////////////////////////////////////////
+
+
+
+    ///////////////////////////////////////////////////////////
+    // Compiler
+
+    /**
+     * Compiles a parsed PRISM model into a reaction network
+     * @param modulesFile   parsed model with all constant values defined
+     * @param predilections delta predilections of the model
+     * @return compiled network
+     * @throws PrismException if the model is not a supported reaction network
+     */
+    public static ReactionNetwork compile(ModulesFile modulesFile, Predilections predilections)
+            throws PrismException {
+        ModulesFile mf = (ModulesFile) modulesFile.deepCopy()
+                .replaceConstants(modulesFile.getConstantValues())
+                .simplify();
+
+        for (int i = 0; i < mf.getNumVars(); i++) {
+            if (!(mf.getVarType(i) instanceof TypeInt)) {
+                throw new PrismLangException("Native engine only supports integer variables, \""
+                        + mf.getVarName(i) + "\" is not");
+            }
+        }
+        State init = mf.getDefaultInitialState();
+        if (init == null) {
+            throw new PrismLangException("Native engine does not support init...endinit blocks");
+        }
+
+        List<Reaction> reactions = new ArrayList<>();
+        List<Command> independent = new ArrayList<>();
+        for (int m = 0; m < mf.getNumModules(); m++) {
+            Module module = mf.getModule(m);
+            for (int c = 0; c < module.getNumCommands(); c++) {
+                Command command = module.getCommand(c);
+                if ("".equals(command.getSynch())) {
+                    independent.add(command);
+                }
+            }
+        }
+        for (Command command : independent) {
+            List<Command> single = new ArrayList<>(1);
+            single.add(command);
+            expand(mf, "", single, reactions);
+        }
+        for (String synch : mf.getSynchs()) {
+            // Every module with the action in its alphabet takes part,
+            // via any one of its commands for that action
+            List<List<Command>> participants = new ArrayList<>();
+            for (int m = 0; m < mf.getNumModules(); m++) {
+                List<Command> commands = new ArrayList<>();
+                Module module = mf.getModule(m);
+                for (int c = 0; c < module.getNumCommands(); c++) {
+                    if (synch.equals(module.getCommand(c).getSynch())) {
+                        commands.add(module.getCommand(c));
+                    }
+                }
+                if (!commands.isEmpty()) {
+                    participants.add(commands);
+                }
+            }
+            combine(mf, synch, participants, 0, new ArrayList<>(), reactions);
+        }
+
+        ReactionNetwork network = new ReactionNetwork(mf, mf.createVarList(), init, reactions, predilections);
+        logger.info("Compiled native reaction network: " + network.numSpecies + " species, "
+                + network.numReactions + " reactions");
+        return network;
+    }
+
+    /**
+     * Enumerates one command per participating module
+     */
+    private static void combine(ModulesFile mf, String synch, List<List<Command>> participants, int m,
+                                List<Command> chosen, List<Reaction> reactions) throws PrismException {
+        if (m == participants.size()) {
+            expand(mf, synch, chosen, reactions);
+            return;
+        }
+        for (Command command : participants.get(m)) {
+            chosen.add(command);
+            combine(mf, synch, participants, m + 1, chosen, reactions);
+            chosen.remove(chosen.size() - 1);
+        }
+    }
+
+    /**
+     * Expands a set of synchronising commands into one reaction per
+     * combination of their (rate-weighted) update alternatives
+     */
+    private static void expand(ModulesFile mf, String synch, List<Command> commands, List<Reaction> reactions)
+            throws PrismException {
+        Expression guard = null;
+        for (Command command : commands) {
+            guard = (guard == null) ? command.getGuard()
+                    : new ExpressionBinaryOp(ExpressionBinaryOp.AND, guard, command.getGuard());
+        }
+        Reaction base = new Reaction(synch, guard);
+        expandUpdates(mf, commands, 0, base, reactions);
+    }
+
+    private static void expandUpdates(ModulesFile mf, List<Command> commands, int c,
+                                      Reaction partial, List<Reaction> reactions) throws PrismException {
+        if (c == commands.size()) {
+            reactions.add(partial);
+            return;
+        }
+        Updates updates = commands.get(c).getUpdates();
+        for (int u = 0; u < updates.getNumUpdates(); u++) {
+            Reaction reaction = partial.copy();
+            reaction.multiplyRate(updates.getProbability(u));
+            reaction.addUpdate(mf, updates.getUpdate(u));
+            expandUpdates(mf, commands, c + 1, reaction, reactions);
+        }
+    }
+
+    private static CompiledExpression compileLabel(ModulesFile mf, String name) throws PrismException {
+        LabelList labels = mf.getLabelList();
+        int index = labels.getLabelIndex(name);
+        if (index < 0) {
+            throw new PrismLangException("Model has no label \"" + name + "\"");
+        }
+        return CompiledExpression.compile(labels.getLabel(index));
+    }
+
+    /**
+     * Work item used while compiling: one combination of commands and updates
+     */
+    private static class Reaction {
+        final String action;
+        final Expression guard;
+        Expression rate = null;
+        final List<Integer> species = new ArrayList<>();
+        final List<Integer> delta = new ArrayList<>();
+
+        Reaction(String action, Expression guard) {
+            this.action = action;
+            this.guard = guard;
+        }
+
+        Reaction copy() {
+            Reaction copy = new Reaction(action, guard);
+            copy.rate = rate;
+            copy.species.addAll(species);
+            copy.delta.addAll(delta);
+            return copy;
+        }
+
+        void multiplyRate(Expression factor) {
+            // A missing rate in PRISM means 1
+            if (factor == null) {
+                return;
+            }
+            rate = (rate == null) ? factor : new ExpressionBinaryOp(ExpressionBinaryOp.TIMES, rate, factor);
+        }
+
+        Expression getRate() {
+            return (rate == null) ? new ExpressionLiteral(TypeInt.getInstance(), 1) : rate;
+        }
+
+        void addUpdate(ModulesFile mf, Update update) throws PrismLangException {
+            for (int e = 0; e < update.getNumElements(); e++) {
+                int var = mf.getVarIndex(update.getVar(e));
+                if (species.contains(var)) {
+                    throw new PrismLangException("Variable \"" + update.getVar(e)
+                            + "\" is updated twice by action [" + action + "]");
+                }
+                int change = stoichiometry(var, update.getExpression(e));
+                if (change != 0) {
+                    species.add(var);
+                    delta.add(change);
+                }
+            }
+        }
+
+        /**
+         * Extracts c from an update of the form x'=x+c, x'=x-c or x'=x
+         */
+        private static int stoichiometry(int var, Expression expr) throws PrismLangException {
+            while (expr instanceof ExpressionUnaryOp
+                    && ((ExpressionUnaryOp) expr).getOperator() == ExpressionUnaryOp.PARENTH) {
+                expr = ((ExpressionUnaryOp) expr).getOperand();
+            }
+            if (isVar(expr, var)) {
+                return 0;
+            }
+            if (expr instanceof ExpressionBinaryOp) {
+                ExpressionBinaryOp op = (ExpressionBinaryOp) expr;
+                if (op.getOperator() == ExpressionBinaryOp.PLUS) {
+                    if (isVar(op.getOperand1(), var) && isIntLiteral(op.getOperand2())) {
+                        return intValue(op.getOperand2());
+                    }
+                    if (isVar(op.getOperand2(), var) && isIntLiteral(op.getOperand1())) {
+                        return intValue(op.getOperand1());
+                    }
+                }
+                if (op.getOperator() == ExpressionBinaryOp.MINUS
+                        && isVar(op.getOperand1(), var) && isIntLiteral(op.getOperand2())) {
+                    return -intValue(op.getOperand2());
+                }
+            }
+            throw new PrismLangException("Native engine only supports updates of the form x'=x+c, not \""
+                    + expr + "\"");
+        }
+
+        private static boolean isVar(Expression expr, int var) {
+            return expr instanceof ExpressionVar && ((ExpressionVar) expr).getIndex() == var;
+        }
+
+        private static boolean isIntLiteral(Expression expr) {
+            return expr instanceof ExpressionLiteral && ((ExpressionLiteral) expr).getValue() instanceof Integer;
+        }
+
+        private static int intValue(Expression expr) {
+            return (Integer) ((ExpressionLiteral) expr).getValue();
+        }
+    }
+
+    //
+    ///////////////////////////////////////////////////////////
+
+}
@@ -0,0 +1,192 @@
+package imsam.simulation;
+
+import java.util.List;
+
+import org.json.JSONObject;
+
+/**
+ * Cost and efficiency figures of one simulation run, collected from the
+ * workers' counters after sampling.
+ *
+ * The work-normalised relative variance is the relative variance of a
+ * single sample, variance/mean^2, times the cost of a sample. Its
+ * inverse is the efficiency, so two importance sampling heuristics can be
+ * compared independently of how many runs each was given: the lower it
+ * is, the less work is needed for a given relative error. Two cost
+ * measures are reported, CPU time (worker-seconds per path) and
+ * transitions per path, which does not depend on the machine.
+ */
+public class RunMetrics {
+
+    public final long   paths;
+    public final long   steps;
+    public final int    threads;
+    public final double wallSeconds;
+
+    public final double meanPathLength;
+    public final long   pathLengthP50;
+    public final long   pathLengthP90;
+    public final long   pathLengthP99;
+    public final long   pathLengthMax;
+
+    // Summed over all workers; 0 unless --phase-timing was given
+    public final double constraintSeconds;
+    public final double selectionSeconds;
+    public final double moduloSeconds;
+
+    // Summed over all workers; 0 unless --label-cache was given
+    public final long labelCacheHits;
+    public final long labelCacheMisses;
+
+    public final double relativeVariance;
+
+    /**
+     * @param stats       statistics of all samples of the run
+     * @param workers     samplers that simulated the run
+     * @param wallSeconds elapsed wall-clock time of the sampling
+     */
+    public RunMetrics(SampleStatistics stats, List<PathSampler> workers, double wallSeconds) {
+        LengthHistogram lengths = new LengthHistogram();
+        long totalSteps = 0;
+        long constraintNanos = 0;
+        long selectionNanos  = 0;
+        long moduloNanos     = 0;
+        long cacheHits       = 0;
+        long cacheMisses     = 0;
+        for (PathSampler worker : workers) {
+            lengths.merge(worker.getPathLengths());
+            totalSteps      += worker.getSteps();
+            constraintNanos += worker.getConstraintNanos();
+            selectionNanos  += worker.getSelectionNanos();
+            moduloNanos     += worker.getModuloNanos();
+            cacheHits       += worker.getLabelCacheHits();
+            cacheMisses     += worker.getLabelCacheMisses();
+        }
+        // Paths of these workers, which excludes those of a resumed checkpoint
+        this.paths       = lengths.getCount();
+        this.steps       = totalSteps;
+        this.threads     = workers.size();
+        this.wallSeconds = wallSeconds;
+
+        meanPathLength = lengths.getMean();
+        pathLengthP50  = lengths.getPercentile(0.50);
+        pathLengthP90  = lengths.getPercentile(0.90);
+        pathLengthP99  = lengths.getPercentile(0.99);
+        pathLengthMax  = lengths.getMax();
+
+        constraintSeconds = constraintNanos / 1e9;
+        selectionSeconds  = selectionNanos / 1e9;
+        moduloSeconds     = moduloNanos / 1e9;
+
+        labelCacheHits   = cacheHits;
+        labelCacheMisses = cacheMisses;
+
+        relativeVariance = stats.getVariance() / (stats.getMean() * stats.getMean());
+    }
+
+    public double getPathsPerSecond() {
+        return paths / wallSeconds;
+    }
+
+    public double getStepsPerSecond() {
+        return steps / wallSeconds;
+    }
+
+    /**
+     * @return fraction of label evaluations answered by the label caches
+     */
+    public double getLabelCacheHitRate() {
+        return labelCacheHits / (double) (labelCacheHits + labelCacheMisses);
+    }
+
+    /**
+     * @return worker-seconds spent per path
+     */
+    public double getSecondsPerPath() {
+        return threads * wallSeconds / paths;
+    }
+
+    /**
+     * @return relative variance times worker-seconds per path
+     */
+    public double getWorkNormalisedVariance() {
+        return relativeVariance * getSecondsPerPath();
+    }
+
+    /**
+     * @return relative variance times transitions per path
+     */
+    public double getStepNormalisedVariance() {
+        return relativeVariance * meanPathLength;
+    }
+
+    /**
+     * Tab-separated values: steps, wall seconds, paths/s, steps/s, mean,
+     * median and 99th percentile path length, constraint, selection and
+     * modulo seconds, work- and step-normalised variance
+     */
+    public String toRawString() {
+        return steps + "\t" +
+               wallSeconds + "\t" +
+               getPathsPerSecond() + "\t" +
+               getStepsPerSecond() + "\t" +
+               meanPathLength + "\t" +
+               pathLengthP50 + "\t" +
+               pathLengthP99 + "\t" +
+               constraintSeconds + "\t" +
+               selectionSeconds + "\t" +
+               moduloSeconds + "\t" +
+               getWorkNormalisedVariance() + "\t" +
+               getStepNormalisedVariance();
+    }
+
+    public JSONObject toJSON() {
+        JSONObject pathLength = new JSONObject();
+        pathLength.put("mean", meanPathLength);
+        pathLength.put("p50", pathLengthP50);
+        pathLength.put("p90", pathLengthP90);
+        pathLength.put("p99", pathLengthP99);
+        pathLength.put("max", pathLengthMax);
+
+        JSONObject phases = new JSONObject();
+        phases.put("constraintSeconds", constraintSeconds);
+        phases.put("selectionSeconds", selectionSeconds);
+        phases.put("moduloSeconds", moduloSeconds);
+
+        JSONObject labelCache = new JSONObject();
+        labelCache.put("hits", labelCacheHits);
+        labelCache.put("misses", labelCacheMisses);
+        labelCache.put("hitRate", finiteOrNull(getLabelCacheHitRate()));
+
+        JSONObject json = new JSONObject();
+        json.put("paths", paths);
+        json.put("steps", steps);
+        json.put("threads", threads);
+        json.put("wallSeconds", wallSeconds);
+        json.put("pathsPerSecond", getPathsPerSecond());
+        json.put("stepsPerSecond", getStepsPerSecond());
+        json.put("pathLength", pathLength);
+        json.put("phases", phases);
+        json.put("labelCache", labelCache);
+        json.put("relativeVariance", finiteOrNull(relativeVariance));
+        json.put("workNormalisedVariance", finiteOrNull(getWorkNormalisedVariance()));
+        json.put("stepNormalisedVariance", finiteOrNull(getStepNormalisedVariance()));
+        return json;
+    }
+
+    /**
+     * JSON has no NaN or infinity (e.g. relative variance of a zero estimate)
+     */
+    public static Object finiteOrNull(double value) {
+        return Double.isFinite(value) ? (Object) value : JSONObject.NULL;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d paths, %d steps in %.3f s (%.1f paths/s, %.1f steps/s), "
+                + "path length mean %.1f p50 %d p99 %d max %d, work-normalised variance %g",
+                paths, steps, wallSeconds, getPathsPerSecond(), getStepsPerSecond(),
+                meanPathLength, pathLengthP50, pathLengthP99, pathLengthMax, getWorkNormalisedVariance());
+    }
+
+}
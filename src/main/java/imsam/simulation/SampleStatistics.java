@@ -0,0 +1,161 @@
+package imsam.simulation;
+
+import org.json.JSONObject;
+
+/**
+ * Single-pass accumulator for importance sampling weights: count, mean and
+ * sum of squared deviations (Welford), number of non-zero weights, and the
+ * smallest and largest weight.
+ *
+ * Accumulators of disjoint sets of samples (worker threads, independent
+ * jobs) can be combined with merge(), using the pairwise update of Chan et
+ * al., so no sample needs to be stored.
+ *
+ * Not thread safe; use one accumulator per worker and merge them.
+ */
+public class SampleStatistics {
+
+    private long   count = 0;
+    private double mean  = 0.0;
+    private double m2    = 0.0;
+    private long   nonZeroCount = 0;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public SampleStatistics() {
+    }
+
+    /**
+     * Creates an accumulator from previously computed values
+     * @param count        number of samples
+     * @param mean         mean of the samples
+     * @param m2           sum of squared deviations from the mean
+     * @param nonZeroCount number of non-zero samples
+     * @param min          smallest sample
+     * @param max          largest sample
+     */
+    public SampleStatistics(long count, double mean, double m2, long nonZeroCount, double min, double max) {
+        this.count        = count;
+        this.mean         = mean;
+        this.m2           = m2;
+        this.nonZeroCount = nonZeroCount;
+        this.min          = min;
+        this.max          = max;
+    }
+
+    /**
+     * Adds one sample
+     */
+    public void add(double x) {
+        count++;
+        double delta = x - mean;
+        mean += delta / count;
+        m2   += delta * (x - mean);
+        if (x > 0) {
+            nonZeroCount++;
+        }
+        if (x < min) {
+            min = x;
+        }
+        if (x > max) {
+            max = x;
+        }
+    }
+
+    /**
+     * Adds all samples summarised by another accumulator
+     */
+    public void merge(SampleStatistics other) {
+        if (other.count == 0) {
+            return;
+        }
+        if (count == 0) {
+            count        = other.count;
+            mean         = other.mean;
+            m2           = other.m2;
+            nonZeroCount = other.nonZeroCount;
+            min          = other.min;
+            max          = other.max;
+            return;
+        }
+        long   total = count + other.count;
+        double delta = other.mean - mean;
+        mean += delta * other.count / total;
+        m2   += other.m2 + delta * delta * ((double) count * other.count / total);
+        count = total;
+        nonZeroCount += other.nonZeroCount;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * @return sum of squared deviations from the mean
+     */
+    public double getM2() {
+        return m2;
+    }
+
+    /**
+     * @return unbiased sample variance (NaN for fewer than two samples)
+     */
+    public double getVariance() {
+        return m2 / ((double) count - 1.0);
+    }
+
+    /**
+     * @return variance of the mean, i.e. the squared standard error
+     */
+    public double getVarianceOfMean() {
+        return getVariance() / count;
+    }
+
+    public long getNonZeroCount() {
+        return nonZeroCount;
+    }
+
+    /**
+     * @return fraction of samples with a non-zero weight
+     */
+    public double getNonZeroRate() {
+        return (double) nonZeroCount / count;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * All accumulator values, enough to merge() results of separate jobs
+     * later, plus the derived variance
+     */
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("count", count);
+        json.put("mean", mean);
+        json.put("m2", m2);
+        json.put("variance", RunMetrics.finiteOrNull(getVariance()));
+        json.put("nonZeroCount", nonZeroCount);
+        json.put("min", RunMetrics.finiteOrNull(min));
+        json.put("max", RunMetrics.finiteOrNull(max));
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return "n=" + count + " mean=" + mean + " variance=" + getVariance()
+                + " nonZero=" + nonZeroCount + " min=" + min + " max=" + max;
+    }
+
+}
@@ -0,0 +1,228 @@
+package imsam.simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.logging.log4j.Logger;
+
+import imsam.Main;
+import imsam.probability.RandomStream;
+
+import prism.PrismException;
+
+/**
+ * Fixed-effort multilevel splitting on a compiled reaction network, an
+ * alternative to weighted SSA for very rare events.
+ *
+ * The levels of an ImportanceFunction, followed by the objective label,
+ * split the way to the rare event into stages. Stage i simulates a fixed
+ * number of trajectories of the unbiased model, started round-robin from
+ * the states in which stage i-1 entered its level, each until it enters
+ * level i, exceeds Tmax or deadlocks. The entrance states and times are
+ * kept as snapshots (copies of the int[] state), so a trajectory is
+ * cloned without replaying its path. The fraction of successful
+ * trajectories estimates the conditional probability of the stage, and
+ * their product the probability of the event.
+ *
+ * The trajectories of a stage are sharded over the workers. Trajectory n
+ * of a stage runs on its own random stream and the entrance states are
+ * merged in trajectory order, so the result does not depend on the
+ * number of threads.
+ */
+public class SplittingEstimator {
+
+    final static Logger logger = Main.getLogger(SplittingEstimator.class);
+
+    private final ReactionNetwork    network;
+    private final ImportanceFunction importance;
+    private final double             tmax;
+    private final int                effort;
+    private final List<Trajectory>   workers = new ArrayList<>();
+
+    /**
+     * @param network    compiled model, shared read-only
+     * @param importance intermediate levels
+     * @param tmax       time bound of the property
+     * @param effort     number of trajectories per stage
+     * @param threads    number of workers
+     */
+    public SplittingEstimator(ReactionNetwork network, ImportanceFunction importance, double tmax,
+                              int effort, int threads) {
+        this.network    = network;
+        this.importance = importance;
+        this.tmax       = tmax;
+        this.effort     = effort;
+        for (int w = 0; w < threads; w++) {
+            workers.add(new Trajectory());
+        }
+    }
+
+    /**
+     * @return number of stages: the intermediate levels and the objective
+     */
+    public int getNumStages() {
+        return importance.numLevels + 1;
+    }
+
+    /**
+     * @return total number of reactions simulated so far
+     */
+    public long getSteps() {
+        long steps = 0;
+        for (Trajectory worker : workers) {
+            steps += worker.steps;
+        }
+        return steps;
+    }
+
+    /**
+     * Runs one independent replication of all stages
+     * @param pool executor with at least one thread per worker
+     * @param seed seed of the replication
+     * @return conditional probability of every stage; after a stage
+     *         without success the remaining stages are not run and are 0
+     */
+    public double[] replicate(ExecutorService pool, long seed) throws PrismException, InterruptedException {
+        double[] probabilities = new double[getNumStages()];
+        Snapshots entrance = new Snapshots();
+        entrance.add(network.initialState, 0.0);
+        for (int stage = 1; stage <= getNumStages(); stage++) {
+            Snapshots next = runStage(pool, entrance, stage, RandomStream.pathSeed(seed, stage));
+            probabilities[stage-1] = (double) next.size() / effort;
+            if (logger.isDebugEnabled()) {
+                logger.debug("Stage " + stage + ": " + next.size() + " of " + effort + " trajectories entered the level");
+            }
+            if (next.size() == 0) {
+                break;
+            }
+            entrance = next;
+        }
+        return probabilities;
+    }
+
+    private Snapshots runStage(ExecutorService pool, Snapshots entrance, int stage, long stageSeed)
+            throws PrismException, InterruptedException {
+        int numWorkers = workers.size();
+        List<Future<Snapshots>> futures = new ArrayList<>(numWorkers);
+        for (int w = 0; w < numWorkers; w++) {
+            Trajectory worker = workers.get(w);
+            int from = (int) ((long) effort * w / numWorkers);
+            int to   = (int) ((long) effort * (w + 1) / numWorkers);
+            futures.add(pool.submit(() -> worker.run(entrance, from, to, stage, stageSeed)));
+        }
+        Snapshots next = new Snapshots();
+        try {
+            for (Future<Snapshots> future : futures) {
+                next.addAll(future.get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof PrismException) {
+                throw (PrismException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+        return next;
+    }
+
+    /**
+     * States and times at which trajectories entered a level
+     */
+    private static class Snapshots {
+        final List<int[]>     states = new ArrayList<>();
+        final DoubleArrayList times  = new DoubleArrayList();
+
+        void add(int[] state, double time) {
+            states.add(state.clone());
+            times.add(time);
+        }
+
+        void addAll(Snapshots other) {
+            states.addAll(other.states);
+            times.addAll(other.times);
+        }
+
+        int size() {
+            return states.size();
+        }
+    }
+
+    /**
+     * Simulation buffers of one worker
+     */
+    private class Trajectory {
+        final int[]        state = new int[network.numSpecies];
+        final double[]     rates = new double[network.numReactions];
+        final RandomStream rng   = new RandomStream(0);
+        long steps = 0;
+
+        /**
+         * Simulates trajectories from..to-1 of a stage
+         * @return entrance snapshots of the successful ones, in order
+         */
+        Snapshots run(Snapshots entrance, int from, int to, int stage, long stageSeed) throws PrismException {
+            Snapshots entered = new Snapshots();
+            for (int n = from; n < to; n++) {
+                rng.reseed(RandomStream.pathSeed(stageSeed, n));
+                int start = n % entrance.size();
+                System.arraycopy(entrance.states.get(start), 0, state, 0, network.numSpecies);
+                double time = simulate(entrance.times.get(start), stage);
+                if (time >= 0) {
+                    entered.add(state, time);
+                }
+            }
+            return entered;
+        }
+
+        /**
+         * Simulates the unbiased model from the current state until it
+         * enters the level of the stage
+         * @return time of entrance, or -1 if Tmax passed first, the next
+         *         transition violates the constraint or the model deadlocked
+         */
+        double simulate(double time, int stage) throws PrismException {
+            while (!reached(stage)) {
+                double totalRate = 0.0;
+                for (int j = 0; j < network.numReactions; j++) {
+                    rates[j] = network.propensity(j, state);
+                    totalRate += rates[j];
+                }
+                if (totalRate == 0.0) {
+                    return -1;
+                }
+                time += rng.nextExponential(totalRate);
+                if (time > tmax) {
+                    return -1;
+                }
+                double x = rng.nextDouble(totalRate);
+                int j = 0;
+                while (j < network.numReactions - 1 && (x -= rates[j]) >= 0) {
+                    j++;
+                }
+                // Rounding may leave x past the last enabled reaction
+                while (rates[j] == 0.0) {
+                    j--;
+                }
+                // Like the wSSA samplers, estimate the probability of
+                // reaching the objective without violating the constraint
+                if (!network.constraintAfter(j, state)) {
+                    return -1;
+                }
+                network.fire(j, state);
+                network.checkBounds(j, state);
+                steps++;
+            }
+            return time;
+        }
+
+        private boolean reached(int stage) {
+            if (network.objective.evaluateBoolean(state)) {
+                return true;
+            }
+            return stage <= importance.numLevels && importance.level(state) >= stage;
+        }
+    }
+
+}
@@ -0,0 +1,281 @@
+package imsam.simulation;
+
+import java.util.Arrays;
+
+import imsam.ExtendedWSSA;
+
+/**
+ * Picks the next transition of an SSA step in proportion to its rate.
+ *
+ * A selector holds a copy of the (biased) rates of the current state,
+ * loaded with reset() or changed one at a time with update(), and maps a
+ * uniform draw x in [0, total) to the index of the first transition whose
+ * cumulative rate exceeds x. Transitions with rate 0 are never selected.
+ *
+ * Three strategies are available:
+ *  - LINEAR:     scan the rates;                  O(k) per selection
+ *  - CUMULATIVE: binary search over prefix sums;  O(k) reset, O(log k) select
+ *  - FENWICK:    partial-sum (Fenwick) tree;      O(log k) update and select
+ *
+ * Selectors are not thread safe; every sampler owns its own.
+ */
+public abstract class TransitionSelector {
+
+    protected double[] rates;
+    protected int size = 0;
+
+    protected TransitionSelector(int capacity) {
+        rates = new double[Math.max(1, capacity)];
+    }
+
+    /**
+     * Creates a selector of the given kind
+     * @param kind     selection strategy
+     * @param capacity expected number of transitions (grown on demand)
+     */
+    public static TransitionSelector create(ExtendedWSSA.Selector kind, int capacity) {
+        switch (kind) {
+        case CUMULATIVE:
+            return new Cumulative(capacity);
+        case FENWICK:
+            return new Fenwick(capacity);
+        case LINEAR:
+        default:
+            return new Linear(capacity);
+        }
+    }
+
+    /**
+     * Loads the rates of a new state
+     * @param rates rates[0..n-1] of the transitions; copied
+     * @param n     number of transitions
+     */
+    public void reset(double[] rates, int n) {
+        if (n > this.rates.length) {
+            grow(Math.max(n, 2 * this.rates.length));
+        }
+        System.arraycopy(rates, 0, this.rates, 0, n);
+        size = n;
+        rebuild();
+    }
+
+    /**
+     * Changes the rate of transition i, keeping all other rates
+     */
+    public abstract void update(int i, double rate);
+
+    /**
+     * @return sum of the current rates
+     */
+    public abstract double total();
+
+    /**
+     * @param x uniform draw in [0, total())
+     * @return index of the selected transition
+     */
+    public abstract int select(double x);
+
+    public double getRate(int i) {
+        return rates[i];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Recomputes any derived data after the rates were replaced
+     */
+    protected abstract void rebuild();
+
+    protected void grow(int capacity) {
+        rates = Arrays.copyOf(rates, capacity);
+    }
+
+    /**
+     * Fallback for draws at or beyond the total (rounding): the last
+     * transition with a non-zero rate
+     */
+    protected int lastEnabled() {
+        for (int i = size - 1; i > 0; i--) {
+            if (rates[i] > 0) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+
+    ///////////////////////////////////////////////////////////
+    // Strategies
+
+    static final class Linear extends TransitionSelector {
+        private double total;
+
+        Linear(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        protected void rebuild() {
+            double sum = 0.0;
+            for (int i = 0; i < size; i++) {
+                sum += rates[i];
+            }
+            total = sum;
+        }
+
+        @Override
+        public void update(int i, double rate) {
+            total   += rate - rates[i];
+            rates[i] = rate;
+        }
+
+        @Override
+        public double total() {
+            return total;
+        }
+
+        @Override
+        public int select(double x) {
+            double tot = 0.0;
+            for (int i = 0; i < size; i++) {
+                tot += rates[i];
+                if (x < tot) {
+                    return i;
+                }
+            }
+            return lastEnabled();
+        }
+    }
+
+    static final class Cumulative extends TransitionSelector {
+        // prefix[i] = rates[0] + ... + rates[i]
+        private double[] prefix;
+
+        Cumulative(int capacity) {
+            super(capacity);
+            prefix = new double[rates.length];
+        }
+
+        @Override
+        protected void grow(int capacity) {
+            super.grow(capacity);
+            prefix = new double[capacity];
+        }
+
+        @Override
+        protected void rebuild() {
+            double sum = 0.0;
+            for (int i = 0; i < size; i++) {
+                sum      += rates[i];
+                prefix[i] = sum;
+            }
+        }
+
+        @Override
+        public void update(int i, double rate) {
+            double d = rate - rates[i];
+            rates[i] = rate;
+            for (int k = i; k < size; k++) {
+                prefix[k] += d;
+            }
+        }
+
+        @Override
+        public double total() {
+            return size > 0 ? prefix[size - 1] : 0.0;
+        }
+
+        @Override
+        public int select(double x) {
+            // First i with prefix[i] > x; zero-rate transitions share the
+            // prefix of their predecessor and so are never the first
+            int lo = 0;
+            int hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (prefix[mid] > x) {
+                    hi = mid;
+                } else {
+                    lo = mid + 1;
+                }
+            }
+            return lo < size ? lo : lastEnabled();
+        }
+    }
+
+    static final class Fenwick extends TransitionSelector {
+        // 1-indexed: tree[k] = sum of rates[k - lowbit(k) .. k-1]
+        private double[] tree;
+        private int      topBit;
+        private double   total;
+
+        Fenwick(int capacity) {
+            super(capacity);
+            tree = new double[rates.length + 1];
+        }
+
+        @Override
+        protected void grow(int capacity) {
+            super.grow(capacity);
+            tree = new double[capacity + 1];
+        }
+
+        @Override
+        protected void rebuild() {
+            double sum = 0.0;
+            for (int k = 1; k <= size; k++) {
+                tree[k] = rates[k - 1];
+                sum    += rates[k - 1];
+            }
+            for (int k = 1; k <= size; k++) {
+                int parent = k + (k & -k);
+                if (parent <= size) {
+                    tree[parent] += tree[k];
+                }
+            }
+            topBit = (size == 0) ? 0 : Integer.highestOneBit(size);
+            total  = sum;
+        }
+
+        @Override
+        public void update(int i, double rate) {
+            double d = rate - rates[i];
+            rates[i] = rate;
+            total   += d;
+            for (int k = i + 1; k <= size; k += k & -k) {
+                tree[k] += d;
+            }
+        }
+
+        @Override
+        public double total() {
+            return total;
+        }
+
+        @Override
+        public int select(double x) {
+            int pos = 0;
+            for (int step = topBit; step > 0; step >>= 1) {
+                int next = pos + step;
+                if (next <= size && tree[next] <= x) {
+                    x  -= tree[next];
+                    pos = next;
+                }
+            }
+            if (pos >= size) {
+                return lastEnabled();
+            }
+            // Rounding in the partial sums may land on a disabled neighbour
+            while (rates[pos] == 0.0 && pos < size - 1) {
+                pos++;
+            }
+            return rates[pos] > 0.0 ? pos : lastEnabled();
+        }
+    }
+
+    //
+    ///////////////////////////////////////////////////////////
+
+}
@@ -0,0 +1,22 @@
+package imsam;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+
+public class ExtendedWSSATest {
+
+    /**
+     * Predilections of actions that never fired are kept above the floor
+     * of their bin, and bins where nothing fired keep their scale
+     */
+    @Test
+    public void test_adaptFloor() {
+        double[] previous = { 1.0, 0.5, 1.0,   2.0, 4.0, 1.0 };
+        double[] next     = { 2.0, 0.0, 1e-9,  0.0, 0.0, 0.0 };
+        boolean[] updated = { true, true, true,  true, true, true };
+        ExtendedWSSA.applyAdaptFloor(next, previous, updated, 3);
+        assertArrayEquals(new double[] { 2.0, 2e-3, 2e-3,  4e-3, 4e-3, 4e-3 }, next, 1e-15);
+    }
+
+}
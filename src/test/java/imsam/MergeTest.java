@@ -0,0 +1,127 @@
+package imsam;
+
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import imsam.simulation.RunMetrics;
+import imsam.simulation.SampleStatistics;
+
+
+public class MergeTest {
+
+    /**
+     * Summary as written by simulate --json, reduced to what merge reads
+     */
+    static JSONObject summary(long seed, String shard, SampleStatistics stats, int threads, double wallSeconds) {
+        JSONObject options = new JSONObject();
+        options.put("model", "models/three_rxn/three_rxn.pm");
+        options.put("const", new JSONArray(List.of("k1=1.0")));
+        options.put("Tmax", 1.0);
+        options.put("Nruns", stats.getCount());
+        options.put("seed", seed);
+        options.put("threads", threads);
+        options.put("selector", "LINEAR");
+        if (shard != null) {
+            options.put("shard", shard);
+        }
+        JSONObject metrics = new JSONObject();
+        metrics.put("paths", stats.getCount());
+        metrics.put("steps", 10 * stats.getCount());
+        metrics.put("threads", threads);
+        metrics.put("wallSeconds", wallSeconds);
+        JSONObject summary = new JSONObject();
+        summary.put("options", options);
+        summary.put("statistics", stats.toJSON());
+        summary.put("metrics", metrics);
+        return summary;
+    }
+
+    static SampleStatistics samples(int from, int to) {
+        SampleStatistics stats = new SampleStatistics();
+        for (int n = from; n < to; n++) {
+            stats.add((n % 5 == 0) ? 1e-6 * (1 + n % 3) : 0.0);
+        }
+        return stats;
+    }
+
+    @Test
+    public void test_poolsShards() {
+        SampleStatistics all = samples(0, 3000);
+        JSONObject pooled = Merge.merge(List.of(summary(7, "0/3", samples(0, 1000), 4, 2.0),
+                                                summary(7, "1/3", samples(1000, 2000), 4, 3.0),
+                                                summary(7, "2/3", samples(2000, 3000), 2, 1.0)),
+                                        List.of("a", "b", "c"));
+        SampleStatistics stats = Merge.readStatistics(pooled);
+        assertEquals(3000, stats.getCount());
+        assertEquals(all.getNonZeroCount(), stats.getNonZeroCount());
+        assertEquals(all.getMean(), stats.getMean(), 1e-12 * all.getMean());
+        assertEquals(all.getVariance(), stats.getVariance(), 1e-9 * all.getVariance());
+
+        JSONObject metrics = pooled.getJSONObject("metrics");
+        assertEquals(30000, metrics.getLong("steps"));
+        assertEquals(3.0, metrics.getDouble("wallSeconds"));
+        assertEquals(4 * 2.0 + 4 * 3.0 + 2 * 1.0, metrics.getDouble("workerSeconds"));
+        assertEquals(false, pooled.getJSONObject("options").has("shard"));
+    }
+
+    @Test
+    public void test_rejectsRepeatedShard() {
+        assertThrows(IllegalArgumentException.class,
+                     () -> Merge.merge(List.of(summary(7, "0/2", samples(0, 100), 1, 1.0),
+                                               summary(7, "0/2", samples(0, 100), 1, 1.0)),
+                                       List.of("a", "b")));
+    }
+
+    /**
+     * Shard 1/2 runs paths 1, 3, 5, ... of the seed and shard 1/4 paths
+     * 1, 5, 9, ..., so they share samples
+     */
+    @Test
+    public void test_rejectsOverlappingShards() {
+        assertThrows(IllegalArgumentException.class,
+                     () -> Merge.merge(List.of(summary(7, "1/2", samples(0, 100), 1, 1.0),
+                                               summary(7, "1/4", samples(0, 100), 1, 1.0)),
+                                       List.of("a", "b")));
+        assertThrows(IllegalArgumentException.class,
+                     () -> Merge.merge(List.of(summary(7, null, samples(0, 100), 1, 1.0),
+                                               summary(7, "1/2", samples(0, 100), 1, 1.0)),
+                                       List.of("a", "b")));
+        Merge.merge(List.of(summary(7, "1/2", samples(0, 100), 1, 1.0),
+                            summary(8, "1/4", samples(0, 100), 1, 1.0)),
+                    List.of("a", "b"));
+    }
+
+    @Test
+    public void test_rejectsOtherHeuristics() {
+        JSONObject other = summary(8, null, samples(0, 100), 1, 1.0);
+        other.getJSONObject("options").put("selector", "FENWICK");
+        assertThrows(IllegalArgumentException.class,
+                     () -> Merge.merge(List.of(summary(7, null, samples(0, 100), 1, 1.0), other),
+                                       List.of("a", "b")));
+    }
+
+    @Test
+    public void test_rejectsOtherModel() {
+        JSONObject other = summary(8, null, samples(0, 100), 1, 1.0);
+        other.getJSONObject("options").put("Tmax", 2.0);
+        assertThrows(IllegalArgumentException.class,
+                     () -> Merge.merge(List.of(summary(7, null, samples(0, 100), 1, 1.0), other),
+                                       List.of("a", "b")));
+    }
+
+    @Test
+    public void test_emptyRun() {
+        JSONObject pooled = Merge.merge(List.of(summary(7, "0/2", new SampleStatistics(), 1, 0.0),
+                                                summary(7, "1/2", samples(0, 10), 1, 1.0)),
+                                        List.of("a", "b"));
+        assertEquals(10, Merge.readStatistics(pooled).getCount());
+        assertEquals(RunMetrics.finiteOrNull(samples(0, 10).getMean()),
+                     pooled.getJSONObject("statistics").get("mean"));
+    }
+
+}
@@ -0,0 +1,43 @@
+package imsam;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+public class SweepTest {
+
+    @Test
+    public void test_parseValues() {
+        assertEquals(List.of("1", "2.5", "10"), Sweep.parseValues("1, 2.5,10"));
+        assertEquals(List.of("10", "40", "70", "100"), Sweep.parseValues("10:100:30"));
+        assertEquals(List.of("0.1", "0.2", "0.3"), Sweep.parseValues("0.1:0.3:0.1"));
+        assertThrows(IllegalArgumentException.class, () -> Sweep.parseValues("1:2"));
+        assertThrows(IllegalArgumentException.class, () -> Sweep.parseValues("2:1:1"));
+    }
+
+    @Test
+    public void test_gridPoints() {
+        List<Map<String, String>> points = Sweep.gridPoints(List.of("delta1=1,2", "Tmax=0.5:1.5:0.5"));
+        assertEquals(6, points.size());
+        assertEquals(Map.of("delta1", "1", "Tmax", "0.5"), points.get(0));
+        assertEquals(Map.of("delta1", "1", "Tmax", "1.0"), points.get(1));
+        assertEquals(Map.of("delta1", "2", "Tmax", "1.5"), points.get(5));
+        assertEquals(List.of("delta1", "Tmax"), List.copyOf(points.get(0).keySet()));
+        assertEquals(0, Sweep.gridPoints(List.of()).size());
+    }
+
+    @Test
+    public void test_rejectsSimulateOnlyOptions() {
+        Sweep sweep = new Sweep();
+        sweep.rejectSimulateOnlyOptions();
+        sweep.adapt = true;
+        sweep.jsonFileName = "summary.json";
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, sweep::rejectSimulateOnlyOptions);
+        assertEquals("--adapt, --json only apply to simulate, not to sweep", e.getMessage());
+    }
+
+}
@@ -0,0 +1,69 @@
+package imsam.probability;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+public class RandomStreamTest {
+
+    @Test
+    public void test_reseedRepeatsStream() {
+        RandomStream stream = new RandomStream(RandomStream.pathSeed(42, 7));
+        double[] first = new double[100];
+        for (int i = 0; i < first.length; i++) {
+            first[i] = stream.nextDouble();
+        }
+        stream.reseed(RandomStream.pathSeed(42, 7));
+        for (int i = 0; i < first.length; i++) {
+            assertEquals(first[i], stream.nextDouble());
+        }
+    }
+
+    @Test
+    public void test_pathStreamsDiffer() {
+        RandomStream a = new RandomStream(RandomStream.pathSeed(42, 0));
+        RandomStream b = new RandomStream(RandomStream.pathSeed(42, 1));
+        RandomStream c = new RandomStream(RandomStream.pathSeed(43, 0));
+        long x = a.nextLong();
+        assertNotEquals(x, b.nextLong());
+        assertNotEquals(x, c.nextLong());
+        // consecutive paths must not be shifted copies of each other
+        RandomStream shifted = new RandomStream(RandomStream.pathSeed(42, 0));
+        shifted.nextLong();
+        assertNotEquals(shifted.nextLong(), new RandomStream(RandomStream.pathSeed(42, 1)).nextLong());
+    }
+
+    @Test
+    public void test_distributions() {
+        RandomStream stream = new RandomStream(1);
+        int n = 100000;
+        double uniformSum = 0, exponentialSum = 0;
+        int[] counts = new int[6];
+        for (int i = 0; i < n; i++) {
+            double u = stream.nextDouble();
+            assertTrue(u >= 0 && u < 1);
+            uniformSum     += u;
+            exponentialSum += stream.nextExponential(4.0);
+            counts[stream.nextInt(6)]++;
+        }
+        assertEquals(0.5,  uniformSum / n,     0.01);
+        assertEquals(0.25, exponentialSum / n, 0.01);
+        for (int count : counts) {
+            assertEquals(n / 6.0, count, 0.05 * n / 6.0);
+        }
+    }
+
+    @Test
+    public void test_seededDistributionsReproducible() {
+        UniformIntDistribution a = new UniformIntDistribution(1, 6, 99);
+        UniformIntDistribution b = new UniformIntDistribution(1, 6, 99);
+        for (int i = 0; i < 100; i++) {
+            double value = a.random();
+            assertEquals(value, b.random());
+            assertTrue(value >= 1 && value <= 6);
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+package imsam.simulation;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+public class BiasTableTest {
+
+    /**
+     * Table over x in [0..9] with 3 bins, for a model with two actions
+     * whose constant predilections are 1 and 1
+     */
+    static BiasTable table() {
+        BiasTable table = BiasTable.uniform("x", 0, 0, 9, 3, new double[] { 1, 1 });
+        double[] deltas = table.getDeltas();
+        for (int c = 0; c < deltas.length; c++) {
+            deltas[c] = c + 1;
+        }
+        return table.withDeltas(deltas);
+    }
+
+    @Test
+    public void test_bins() {
+        BiasTable table = table();
+        int[] expected = { 0, 0, 0, 1, 1, 1, 2, 2, 2, 2 };
+        for (int x = 0; x <= 9; x++) {
+            assertEquals(expected[x], table.bin(x), "bin of " + x);
+        }
+        assertEquals(0, table.bin(-5));
+        assertEquals(2, table.bin(100));
+        assertEquals(6, table.getBinStart(2));
+        assertEquals(4.0, table.get(1, 1));
+        assertEquals(3, table.cell(1, 1));
+    }
+
+    @Test
+    public void test_formula() {
+        assertEquals("formula deltaR1 = x<3 ? 2.0 : (x<6 ? 4.0 : 6.0);", table().toFormula("deltaR1", 1));
+    }
+
+}
@@ -0,0 +1,77 @@
+package imsam.simulation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+public class CheckpointTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void test_roundTrip() throws Exception {
+        SampleStatistics stats = new SampleStatistics();
+        for (double sample : new double[] { 0.0, 1.5e-7, 0.0, 3.25e-7 }) {
+            stats.add(sample);
+        }
+        Path file = tempDir.resolve("run.ckpt");
+        new Checkpoint(42, "model=m.pm Tmax=1.0", stats).write(file);
+
+        Checkpoint checkpoint = Checkpoint.read(file);
+        assertEquals(42, checkpoint.seed);
+        assertEquals("model=m.pm Tmax=1.0", checkpoint.fingerprint);
+        assertEquals(4, checkpoint.getNextPath());
+        assertEquals(stats.getMean(), checkpoint.stats.getMean());
+        assertEquals(stats.getM2(), checkpoint.stats.getM2());
+        assertEquals(2, checkpoint.stats.getNonZeroCount());
+        assertEquals(0.0, checkpoint.stats.getMin());
+        assertEquals(3.25e-7, checkpoint.stats.getMax());
+        assertFalse(Files.exists(tempDir.resolve("run.ckpt.tmp")));
+    }
+
+    /**
+     * Continuing from a checkpoint must give the statistics of the
+     * uninterrupted run
+     */
+    @Test
+    public void test_resumedStatisticsMerge() throws Exception {
+        SampleStatistics all = new SampleStatistics();
+        SampleStatistics first = new SampleStatistics();
+        for (int n = 0; n < 1000; n++) {
+            double sample = (n % 7 == 0) ? n * 1e-9 : 0.0;
+            all.add(sample);
+            if (n < 600) {
+                first.add(sample);
+            }
+        }
+        Path file = tempDir.resolve("run.ckpt");
+        new Checkpoint(1, "", first).write(file);
+
+        SampleStatistics resumed = Checkpoint.read(file).stats;
+        SampleStatistics rest = new SampleStatistics();
+        for (int n = 600; n < 1000; n++) {
+            rest.add((n % 7 == 0) ? n * 1e-9 : 0.0);
+        }
+        resumed.merge(rest);
+        assertEquals(all.getCount(), resumed.getCount());
+        assertEquals(all.getNonZeroCount(), resumed.getNonZeroCount());
+        assertEquals(all.getMean(), resumed.getMean(), 1e-12 * all.getMean());
+        assertEquals(all.getVariance(), resumed.getVariance(), 1e-9 * all.getVariance());
+    }
+
+    @Test
+    public void test_rejectsOtherFiles() throws Exception {
+        Path file = tempDir.resolve("samples.txt");
+        Files.writeString(file, "0.0\n1.0e-7\n");
+        assertThrows(IOException.class, () -> Checkpoint.read(file));
+    }
+
+}
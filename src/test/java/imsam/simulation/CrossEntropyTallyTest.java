@@ -0,0 +1,62 @@
+package imsam.simulation;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+public class CrossEntropyTallyTest {
+
+    /**
+     * Path of steps in states where actions 1 and 2 both have rate 1 and
+     * the biased total rate is 2
+     */
+    static void path(CrossEntropyTally tally, int fired1, int fired2, double weight) {
+        tally.startPath();
+        for (int step = 0; step < fired1 + fired2; step++) {
+            tally.expose(1, 1.0, 2.0);
+            tally.expose(2, 1.0, 2.0);
+            tally.fire(step < fired1 ? 1 : 2);
+        }
+        tally.endPath(weight);
+    }
+
+    @Test
+    public void test_estimate() {
+        CrossEntropyTally tally = new CrossEntropyTally(3);
+        path(tally, 3, 1, 1.0);
+        path(tally, 0, 10, 0.0);     // unsuccessful, ignored
+        assertEquals(1, tally.getSuccesses());
+        assertEquals(3 / (4 * 0.5), tally.estimate(1), 1e-12);
+        assertEquals(1 / (4 * 0.5), tally.estimate(2), 1e-12);
+        assertTrue(tally.isObserved(1));
+        assertFalse(tally.isObserved(0));
+        path(tally, 0, 2, 1.0);
+        assertTrue(tally.hasFired(1));
+        assertTrue(tally.hasFired(2));
+        assertFalse(tally.hasFired(0));
+    }
+
+    /**
+     * Paths are weighted by their likelihood ratio, and merging tallies
+     * is the same as tallying all paths in one
+     */
+    @Test
+    public void test_weightedMerge() {
+        CrossEntropyTally whole = new CrossEntropyTally(3);
+        CrossEntropyTally first = new CrossEntropyTally(3);
+        CrossEntropyTally second = new CrossEntropyTally(3);
+        path(whole, 3, 1, 0.25);
+        path(whole, 1, 1, 0.75);
+        path(first, 3, 1, 0.25);
+        path(second, 1, 1, 0.75);
+        first.merge(second);
+        assertEquals(2, first.getSuccesses());
+        double expected = (0.25 * 3 + 0.75 * 1) / (0.25 * 4 * 0.5 + 0.75 * 2 * 0.5);
+        assertEquals(expected, whole.estimate(1), 1e-12);
+        assertEquals(whole.estimate(1), first.estimate(1), 1e-12);
+        assertEquals(whole.estimate(2), first.estimate(2), 1e-12);
+    }
+
+}
@@ -0,0 +1,93 @@
+package imsam.simulation;
+
+import java.util.BitSet;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+public class LabelCacheTest {
+
+    static final int[] LOWS  = { 0, -5, 0, 0, Integer.MIN_VALUE };
+    static final int[] HIGHS = { 100, 5, 1, Integer.MAX_VALUE, Integer.MAX_VALUE };
+
+    static BitSet vars(int... indices) {
+        BitSet vars = new BitSet();
+        for (int i : indices) {
+            vars.set(i);
+        }
+        return vars;
+    }
+
+    /**
+     * Keys depend only on the variables the label reads, offset by their
+     * lower bounds
+     */
+    @Test
+    public void test_keys() {
+        LabelCache cache = LabelCache.create(vars(0, 1), LOWS, HIGHS, 16);
+        assertEquals(0, cache.key(new int[] { 0, -5, 1, 7, 0 }));
+        assertEquals(cache.key(new int[] { 3, 2, 0, 0, 0 }), cache.key(new int[] { 3, 2, 1, 9, 0 }));
+        assertNotEquals(cache.key(new int[] { 3, 2, 0, 0, 0 }), cache.key(new int[] { 2, 3, 0, 0, 0 }));
+        assertEquals(-1, cache.key(new int[] { 101, 0, 0, 0, 0 }));
+        assertEquals(-1, cache.key(new int[] { 0, -6, 0, 0, 0 }));
+    }
+
+    @Test
+    public void test_getPut() {
+        LabelCache cache = LabelCache.create(vars(0), LOWS, HIGHS, 4);
+        assertEquals(-1, cache.get(5));
+        cache.put(5, true);
+        assertEquals(1, cache.get(5));
+        cache.put(6, false);
+        assertEquals(0, cache.get(6));
+        // Every key is either cached or not: a four-entry table cannot
+        // keep them all, but never answers with another key's value
+        for (long key = 0; key <= 100; key++) {
+            cache.put(key, key % 2 == 0);
+        }
+        for (long key = 0; key <= 100; key++) {
+            int cached = cache.get(key);
+            if (cached >= 0) {
+                assertEquals(key % 2 == 0 ? 1 : 0, cached);
+            }
+        }
+    }
+
+    @Test
+    public void test_evaluate() {
+        CompiledExpression label = new CompiledExpression() {
+            int evaluations = 0;
+
+            @Override
+            public double evaluate(int[] state) {
+                evaluations++;
+                return state[0] > 50 ? 1.0 : 0.0;
+            }
+
+            @Override
+            public String toString() {
+                return Integer.toString(evaluations);
+            }
+        };
+        LabelCache cache = LabelCache.create(vars(0), LOWS, HIGHS, 64);
+        for (int n = 0; n < 10; n++) {
+            assertEquals(true, cache.evaluate(label, new int[] { 60, 0, 0, 0 }));
+            assertEquals(false, cache.evaluate(label, new int[] { 40, 0, 0, 0 }));
+        }
+        assertEquals("2", label.toString());
+        assertEquals(18, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void test_uncacheable() {
+        assertNull(LabelCache.create(new BitSet(), LOWS, HIGHS, 16));
+        assertNull(LabelCache.create(vars(0, 3, 4), LOWS, HIGHS, 16));
+        assertThrows(IllegalArgumentException.class, () -> LabelCache.create(vars(0), LOWS, HIGHS, 12));
+    }
+
+}
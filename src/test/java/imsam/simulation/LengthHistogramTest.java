@@ -0,0 +1,47 @@
+package imsam.simulation;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+public class LengthHistogramTest {
+
+    @Test
+    public void test_smallLengthsExact() {
+        LengthHistogram histogram = new LengthHistogram();
+        for (int length = 1; length <= 10; length++) {
+            histogram.add(length);
+        }
+        assertEquals(10, histogram.getCount());
+        assertEquals(5.5, histogram.getMean());
+        assertEquals(5, histogram.getPercentile(0.5));
+        assertEquals(10, histogram.getPercentile(0.99));
+        assertEquals(10, histogram.getMax());
+    }
+
+    @Test
+    public void test_percentilesWithinBucketError() {
+        Random random = new Random(2);
+        long[] lengths = new long[100000];
+        LengthHistogram a = new LengthHistogram();
+        LengthHistogram b = new LengthHistogram();
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] = (long) Math.exp(random.nextDouble() * 14);
+            (i % 2 == 0 ? a : b).add(lengths[i]);
+        }
+        a.merge(b);
+        Arrays.sort(lengths);
+        for (double p : new double[] { 0.5, 0.9, 0.99 }) {
+            long exact = lengths[(int) Math.ceil(p * lengths.length) - 1];
+            long estimate = a.getPercentile(p);
+            assertTrue(estimate <= exact && estimate >= exact * (1 - 1.0 / 32) - 1,
+                    "p" + p + ": " + estimate + " vs exact " + exact);
+        }
+        assertEquals(lengths[lengths.length - 1], a.getMax());
+    }
+
+}
@@ -0,0 +1,76 @@
+package imsam.simulation;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import imsam.ExtendedWSSA;
+import prism.PrismLangException;
+
+
+public class ModelConstantsTest {
+
+    static ExtendedWSSA load(String... constants) throws Exception {
+        return loadModel("models/three_rxn/three_rxn_wssa.pm", constants);
+    }
+
+    static ExtendedWSSA loadModel(String modelFileName, String... constants) throws Exception {
+        ExtendedWSSA wssa = new ExtendedWSSA();
+        wssa.prism = TestModels.prism();
+        wssa.modelFileName = modelFileName;
+        wssa.modelConstants = List.of(constants);
+        wssa.loadModel();
+        return wssa;
+    }
+
+    static int actionIndex(Predilections predilections, String action) {
+        for (int a = 0; a < predilections.getNumActions(); a++) {
+            if (predilections.getActionString(a).equals(action)) {
+                return a;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Defined constants of any type can be overridden, repeated and
+     * comma-separated options combine, and dependent values follow
+     */
+    @Test
+    public void test_overrideDefinedConstants() throws Exception {
+        ExtendedWSSA wssa = load("delta1=2.5,maxSpecies=50", "k3=0.1");
+        assertEquals(2.5, wssa.modulesFile.getConstantValues().getValueOf("delta1"));
+        assertEquals(5.0, wssa.modulesFile.getConstantValues().getValueOf("delta2"));
+        assertEquals(50, wssa.modulesFile.getConstantValues().getValueOf("maxSpecies"));
+        assertEquals(0.1, wssa.modulesFile.getConstantValues().getValueOf("k3"));
+        assertEquals(1.0, wssa.modulesFile.getConstantValues().getValueOf("k1"));
+    }
+
+    /**
+     * An overridden deltaR<n> reaches the predilection of action [R<n>]
+     */
+    @Test
+    public void test_overridePredilection() throws Exception {
+        ExtendedWSSA wssa = loadModel("models/eight_rxn/eight_rxn_wSSA.pm", "deltaR5=2.5");
+        Predilections predilections = wssa.predilections;
+        assertEquals(2.5, predilections.getConstant(actionIndex(predilections, "[R5]")));
+        assertEquals(0.0, predilections.getConstant(actionIndex(predilections, "[R6]")));
+        assertEquals(1.0, predilections.getConstant(actionIndex(predilections, "[R7]")));
+    }
+
+    @Test
+    public void test_invalidConstants() {
+        assertThrows(PrismLangException.class, () -> load("maxSpecies=2.5"));
+        assertThrows(PrismLangException.class, () -> load("noSuchConstant=1"));
+        assertThrows(IllegalArgumentException.class, () -> load("delta1"));
+    }
+
+    @Test
+    public void test_parseKeepsLastValue() {
+        assertEquals(List.of("a", "b"), List.copyOf(ModelConstants.parse(List.of("a=1", "b = 2", "a=3")).keySet()));
+        assertEquals("3", ModelConstants.parse(List.of("a=1", "a=3")).get("a"));
+    }
+
+}
@@ -0,0 +1,116 @@
+package imsam.simulation;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import imsam.probability.RandomStream;
+
+
+/**
+ * The streaming modulo weight must have the same distribution as the
+ * original matrix-based computation.
+ */
+public class ModuloHeuristicTest {
+
+    static final double TMAX        = 1.0;
+    static final double GAMMA       = 100;
+    static final int    NUM_SAMPLES = 1000;
+
+    /**
+     * The original PathSampler.moduloWeight(), kept as the reference
+     */
+    static double referenceWeight(DoubleArrayList dwellTimes, Random moduloRandom) {
+        int pathLength = dwellTimes.size();
+        double[][] exponentialSamples = new double[pathLength][NUM_SAMPLES];
+        double[][] moduloSamples      = new double[pathLength][NUM_SAMPLES];
+        double[]   pathTimeSamples    = new double[NUM_SAMPLES];
+        double[]   sampleWeight       = new double[NUM_SAMPLES];
+
+        double totalDwellTime = dwellTimes.sum();
+        if (totalDwellTime < TMAX/GAMMA)
+            return 1;
+        else if (totalDwellTime > TMAX*GAMMA)
+            return 1;
+
+        for (int i = 0; i < pathLength; i++) {
+            double dwellTime = dwellTimes.get(i);
+            if (dwellTime != 0) {
+                for (int j = 0; j < NUM_SAMPLES; j++) {
+                    exponentialSamples[i][j] = dwellTime*(-Math.log(1.0 - moduloRandom.nextDouble()));
+                }
+            } else {
+                Arrays.fill(exponentialSamples[i], 0);
+            }
+        }
+
+        double totalWeight = 0.0;
+        for (int i = 0; i < NUM_SAMPLES; i++) {
+            pathTimeSamples[i] = 0;
+            sampleWeight[i]    = 1.0;
+            for (int j = 0; j < pathLength; j++) {
+                double dwellTime    = dwellTimes.get(j);
+                moduloSamples[j][i] = exponentialSamples[j][i] % TMAX;
+                pathTimeSamples[i] += moduloSamples[j][i];
+                sampleWeight[i]    *= 1.0-Math.exp(-TMAX/dwellTime);
+            }
+            if (pathTimeSamples[i] < TMAX)
+                totalWeight += sampleWeight[i];
+        }
+        return totalWeight/NUM_SAMPLES;
+    }
+
+    static DoubleArrayList path(double... dwellTimes) {
+        DoubleArrayList list = new DoubleArrayList();
+        for (double dwellTime : dwellTimes) {
+            list.add(dwellTime);
+        }
+        return list;
+    }
+
+    static void assertSameDistribution(DoubleArrayList dwellTimes, boolean parallel) {
+        int repetitions = 200;
+        ModuloHeuristic modulo = new ModuloHeuristic(TMAX, GAMMA, NUM_SAMPLES, parallel);
+        RandomStream stream = new RandomStream(5);
+        Random random = new Random(5);
+        double referenceSum = 0, referenceSquareSum = 0, sum = 0;
+        for (int r = 0; r < repetitions; r++) {
+            double reference = referenceWeight(dwellTimes, random);
+            referenceSum       += reference;
+            referenceSquareSum += reference * reference;
+            sum                += modulo.weight(dwellTimes, stream);
+        }
+        double referenceMean = referenceSum / repetitions;
+        double mean          = sum / repetitions;
+        double stdError = Math.sqrt(2 * Math.max(referenceSquareSum / repetitions - referenceMean * referenceMean, 0)
+                                    / repetitions);
+        assertTrue(Math.abs(mean - referenceMean) <= 5 * stdError + 1e-12,
+                dwellTimes + ": " + mean + " vs reference " + referenceMean + " (std error " + stdError + ")");
+    }
+
+    @Test
+    public void test_matchesReference() {
+        assertSameDistribution(path(0.1, 0.2, 0.05, 0.3), false);
+        assertSameDistribution(path(0.5, 0, 0.7, 2.0, 0.01), false);
+        assertSameDistribution(path(0.02, 0.02, 0.02, 0.02, 0.02, 0.02, 0.02, 0.02, 0.02, 0.02), false);
+        assertSameDistribution(path(3.0, 4.0), false);
+    }
+
+    @Test
+    public void test_parallelMatchesReference() {
+        assertSameDistribution(path(0.1, 0.2, 0.05, 0.3), true);
+        assertSameDistribution(path(0.5, 0, 0.7, 2.0, 0.01), true);
+    }
+
+    @Test
+    public void test_outsideStretchRange() {
+        ModuloHeuristic modulo = new ModuloHeuristic(TMAX, GAMMA, NUM_SAMPLES, false);
+        RandomStream stream = new RandomStream(1);
+        assertEquals(1.0, modulo.weight(path(0.001, 0.002), stream));
+        assertEquals(1.0, modulo.weight(path(50, 60), stream));
+    }
+
+}
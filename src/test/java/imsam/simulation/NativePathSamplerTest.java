@@ -0,0 +1,191 @@
+package imsam.simulation;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import imsam.ExtendedWSSA;
+
+
+/**
+ * Differential test: the native engine must agree statistically with
+ * the PRISM engine on the bundled models.
+ */
+public class NativePathSamplerTest {
+
+    @TempDir
+    Path tempDir;
+
+    static ExtendedWSSA load(String modelFileName, ExtendedWSSA.Engine engine, double tmax) throws Exception {
+        return TestModels.load(modelFileName, engine, tmax);
+    }
+
+    static double[] sample(ExtendedWSSA wssa, int nruns, long seed) throws Exception {
+        return TestModels.sample(wssa.createSampler(seed), 0, nruns);
+    }
+
+    static double mean(double[] samples) {
+        double sum = 0;
+        for (double sample : samples) {
+            sum += sample;
+        }
+        return sum / samples.length;
+    }
+
+    static long nonZeroCount(double[] samples) {
+        return Arrays.stream(samples).filter(sample -> sample != 0).count();
+    }
+
+    static double variance(double[] samples) {
+        double mean = mean(samples);
+        double squareSum = 0;
+        for (double sample : samples) {
+            squareSum += (sample - mean) * (sample - mean);
+        }
+        return squareSum / (samples.length - 1);
+    }
+
+    /**
+     * Asserts that both engines estimate the same probability, within
+     * five standard errors of the difference of the means
+     */
+    static void assertEnginesAgree(String modelFileName, double tmax, int nruns) throws Exception {
+        double[] prismSamples  = sample(load(modelFileName, ExtendedWSSA.Engine.PRISM, tmax), nruns, 1);
+        double[] nativeSamples = sample(load(modelFileName, ExtendedWSSA.Engine.NATIVE, tmax), nruns, 2);
+        // All-zero samples would agree without testing anything
+        assertTrue(nonZeroCount(prismSamples) > 0, modelFileName + ": PRISM engine never reached the objective");
+        assertTrue(nonZeroCount(nativeSamples) > 0, modelFileName + ": native engine never reached the objective");
+        double difference = Math.abs(mean(prismSamples) - mean(nativeSamples));
+        double stdError   = Math.sqrt(variance(prismSamples) / nruns + variance(nativeSamples) / nruns);
+        assertTrue(difference <= 5 * stdError + 1e-12,
+                modelFileName + ": engines disagree by " + difference + " (std error " + stdError + ")");
+    }
+
+    @Test
+    public void test_compileThreeReactions() throws Exception {
+        ReactionNetwork network = load("models/three_rxn/three_rxn_wssa.pm", ExtendedWSSA.Engine.NATIVE, 1).network;
+        assertEquals(3, network.numSpecies);
+        assertEquals(3, network.numReactions);
+        int r3 = Arrays.asList(network.actionStrings).indexOf("[r3]");
+        int[] state = { 2, 3, 0 };
+        assertEquals(2 * 3 * 0.05, network.propensity(r3, state), 1e-12);
+        network.fire(r3, state);
+        assertEquals(1, state[0]);
+        assertEquals(2, state[1]);
+        assertEquals(1, state[2]);
+    }
+
+    @Test
+    public void test_compileEightReactions() throws Exception {
+        ReactionNetwork network = load("models/eight_rxn/eight_rxn_wSSA.pm", ExtendedWSSA.Engine.NATIVE, 1).network;
+        assertEquals(7, network.numSpecies);
+        assertEquals(8, network.numReactions);
+        int r6 = Arrays.asList(network.actionStrings).indexOf("[R6]");
+        assertEquals(0.0, network.predilections[r6]);
+    }
+
+    /**
+     * Firing a reaction must not change anything about reactions outside
+     * its dependents, so the incremental updates see every change
+     */
+    @Test
+    public void test_dependencyGraph() throws Exception {
+        for (String modelFileName : new String[] { "models/three_rxn/three_rxn_wssa.pm",
+                                                   "models/eight_rxn/eight_rxn_wSSA.pm" }) {
+            ReactionNetwork network = load(modelFileName, ExtendedWSSA.Engine.NATIVE, 1).network;
+            int[] state = network.initialState.clone();
+            java.util.Random random = new java.util.Random(3);
+            for (int step = 0; step < 1000; step++) {
+                int j = random.nextInt(network.numReactions);
+                if (network.propensity(j, state) <= 0) {
+                    continue;
+                }
+                double[] before = new double[network.numReactions];
+                boolean[] constraintBefore = new boolean[network.numReactions];
+                for (int k = 0; k < network.numReactions; k++) {
+                    before[k] = network.propensity(k, state) * network.predilection(k, state);
+                    constraintBefore[k] = network.constraintAfter(k, state);
+                }
+                network.fire(j, state);
+                boolean[] isDependent = new boolean[network.numReactions];
+                for (int d = network.dependentsStart[j]; d < network.dependentsStart[j+1]; d++) {
+                    isDependent[network.dependents[d]] = true;
+                }
+                for (int k = 0; k < network.numReactions; k++) {
+                    if (!isDependent[k]) {
+                        assertEquals(before[k], network.propensity(k, state) * network.predilection(k, state),
+                                modelFileName + ": " + network.actionStrings[k] + " changed by " + network.actionStrings[j]);
+                        assertEquals(constraintBefore[k], network.constraintAfter(k, state));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Each path runs on its own stream, so splitting the runs between
+     * workers must not change any sample
+     */
+    @Test
+    public void test_samplesIndependentOfSharding() throws Exception {
+        for (ExtendedWSSA.Engine engine : ExtendedWSSA.Engine.values()) {
+            ExtendedWSSA wssa = load("models/three_rxn/three_rxn_wssa.pm", engine, 1);
+            double[] single  = TestModels.sample(wssa.createSampler(9), 0, 200);
+            double[] sharded = new double[200];
+            System.arraycopy(TestModels.sample(wssa.createSampler(9), 120, 200), 0, sharded, 120, 80);
+            System.arraycopy(TestModels.sample(wssa.createSampler(9), 0, 120), 0, sharded, 0, 120);
+            assertTrue(Arrays.equals(single, sharded), engine + ": samples depend on sharding");
+        }
+    }
+
+    /**
+     * Cached label values must be the values the labels would have had
+     */
+    @Test
+    public void test_samplesIndependentOfLabelCache() throws Exception {
+        for (ExtendedWSSA.Engine engine : ExtendedWSSA.Engine.values()) {
+            ExtendedWSSA wssa = load("models/three_rxn/three_rxn_wssa.pm", engine, 1);
+            double[] plain = TestModels.sample(wssa.createSampler(9), 0, 200);
+            wssa.labelCacheSize = 64;
+            PathSampler sampler = wssa.createSampler(9);
+            double[] cached = TestModels.sample(sampler, 0, 200);
+            assertTrue(Arrays.equals(plain, cached), engine + ": samples depend on the label cache");
+            assertTrue(sampler.getLabelCacheHits() > 0, engine + ": label cache never hit");
+        }
+    }
+
+    @Test
+    public void test_birthProcess() throws Exception {
+        assertEnginesAgree("models/birth_process/birth_process.pm", 0.2, 20000);
+    }
+
+    @Test
+    public void test_threeReactions() throws Exception {
+        assertEnginesAgree("models/three_rxn/three_rxn.pm", 1, 20000);
+    }
+
+    @Test
+    public void test_threeReactionsWSSA() throws Exception {
+        assertEnginesAgree("models/three_rxn/three_rxn_wssa.pm", 1, 20000);
+    }
+
+    /**
+     * eight_rxn_wSSA with G_bg=5 instead of 50 as objective, so that
+     * enough paths reach it within 2 s to compare the engines
+     */
+    @Test
+    public void test_eightReactionsWSSA() throws Exception {
+        String model = Files.readString(Path.of("models/eight_rxn/eight_rxn_wSSA.pm"));
+        String objective = "label \"objective\" = G_bg=50;";
+        assertTrue(model.contains(objective));
+        Path modelFile = tempDir.resolve("eight_rxn_wSSA_G_bg5.pm");
+        Files.writeString(modelFile, model.replace(objective, "label \"objective\" = G_bg=5;"));
+        assertEnginesAgree(modelFile.toString(), 2, 5000);
+    }
+
+}
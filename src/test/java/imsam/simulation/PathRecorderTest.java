@@ -0,0 +1,112 @@
+package imsam.simulation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+public class PathRecorderTest {
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Two workers write interleaved blocks; every record must come back
+     * once, with all its columns
+     */
+    @Test
+    public void test_recordsRoundTrip() throws Exception {
+        Path file = tempDir.resolve("run.records");
+        int numPaths = 3 * PathRecorder.BLOCK_SIZE + 17;
+        try (PathRecordWriter writer = new PathRecordWriter(file, PathRecordWriter.RECORDS, List.of())) {
+            PathRecorder[] workers = { new PathRecorder(writer, null), new PathRecorder(writer, null) };
+            for (long n = 0; n < numPaths; n++) {
+                boolean hit = n % 3 == 0;
+                workers[(int) (n % 2)].endPath(n, hit ? n * 1e-9 : 0.0, 1.0 / (n + 1), 2.0 / (n + 1),
+                                               hit ? 1.0 : 0.0, n % 50, 0.5 * n, hit);
+            }
+            for (PathRecorder worker : workers) {
+                worker.flush();
+            }
+        }
+
+        Map<Long, Integer> seen = new TreeMap<>();
+        try (PathRecordReader reader = new PathRecordReader(file)) {
+            assertEquals(List.of("path", "weight", "likelihood", "biasedLikelihood", "moduloWeight",
+                                 "steps", "time", "hit"), reader.getNames());
+            for (Object[] block; (block = reader.nextRecords()) != null; ) {
+                long[]   paths   = (long[]) block[reader.column("path")];
+                double[] weights = (double[]) block[reader.column("weight")];
+                int[]    steps   = (int[]) block[reader.column("steps")];
+                double[] times   = (double[]) block[reader.column("time")];
+                byte[]   hits    = (byte[]) block[reader.column("hit")];
+                for (int i = 0; i < paths.length; i++) {
+                    long n = paths[i];
+                    seen.merge(n, 1, Integer::sum);
+                    assertEquals(n % 3 == 0 ? n * 1e-9 : 0.0, weights[i]);
+                    assertEquals(n % 50, steps[i]);
+                    assertEquals(0.5 * n, times[i]);
+                    assertEquals(n % 3 == 0 ? 1 : 0, hits[i]);
+                }
+            }
+        }
+        assertEquals(numPaths, seen.size());
+        assertEquals(numPaths, seen.values().stream().mapToInt(Integer::intValue).sum());
+    }
+
+    /**
+     * Paths longer than the trajectory buffer are written whole
+     */
+    @Test
+    public void test_trajectoriesRoundTrip() throws Exception {
+        Path file = tempDir.resolve("run.trajectories");
+        int longPath = PathRecorder.TRAJECTORY_BUFFER / 12 + 100;
+        try (PathRecordWriter writer = new PathRecordWriter(file, PathRecordWriter.TRAJECTORIES,
+                                                            List.of("[r1]", "[r2]", "[r3]"))) {
+            PathRecorder recorder = new PathRecorder(null, writer);
+            recorder.step(0, 0.25);
+            recorder.step(2, 0.5);
+            recorder.endPath(0, 0, 0, 0, 0, 2, 0.5, false);
+            for (int i = 0; i < longPath; i++) {
+                recorder.step(i % 3, i);
+            }
+            recorder.endPath(1, 0, 0, 0, 0, longPath, longPath, false);
+            recorder.endPath(2, 0, 0, 0, 0, 0, 0, false);
+            recorder.flush();
+        }
+
+        try (PathRecordReader reader = new PathRecordReader(file)) {
+            assertEquals(List.of("[r1]", "[r2]", "[r3]"), reader.getNames());
+            PathRecordReader.Trajectory path = reader.nextTrajectory();
+            assertEquals(0, path.path);
+            assertArrayEquals(new double[] { 0.25, 0.5 }, path.times);
+            assertArrayEquals(new int[] { 0, 2 }, path.actions);
+            path = reader.nextTrajectory();
+            assertEquals(1, path.path);
+            assertEquals(longPath, path.actions.length);
+            assertEquals(longPath - 1, path.times[longPath - 1]);
+            path = reader.nextTrajectory();
+            assertEquals(2, path.path);
+            assertEquals(0, path.times.length);
+            assertNull(reader.nextTrajectory());
+        }
+    }
+
+    @Test
+    public void test_rejectsOtherFiles() throws Exception {
+        Path file = tempDir.resolve("samples.txt");
+        Files.writeString(file, "0.0\n1.0e-7\n");
+        assertThrows(IOException.class, () -> new PathRecordReader(file));
+    }
+
+}
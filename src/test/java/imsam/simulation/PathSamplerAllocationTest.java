@@ -0,0 +1,54 @@
+package imsam.simulation;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import imsam.ExtendedWSSA;
+
+
+/**
+ * Regression test for the allocation rate of the simulation step loop.
+ * After warm-up, sampling paths must allocate (almost) nothing per step.
+ */
+public class PathSamplerAllocationTest {
+
+    static final int WARMUP_RUNS   = 20000;
+    static final int MEASURED_RUNS = 20000;
+
+    static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threadBean
+                = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    static double bytesPerStep(String modelFileName, double tmax) throws Exception {
+        ExtendedWSSA wssa = TestModels.load(modelFileName, ExtendedWSSA.Engine.NATIVE, tmax);
+        PathSampler sampler = wssa.createSampler(1);
+        for (int n = 0; n < WARMUP_RUNS; n++) {
+            sampler.simulate();
+        }
+        long steps = sampler.getSteps();
+        long bytes = allocatedBytes();
+        for (int n = 0; n < MEASURED_RUNS; n++) {
+            sampler.simulate();
+        }
+        bytes = allocatedBytes() - bytes;
+        steps = sampler.getSteps() - steps;
+        return (double) bytes / steps;
+    }
+
+    @Test
+    public void test_threeReactionsWSSA() throws Exception {
+        double bytesPerStep = bytesPerStep("models/three_rxn/three_rxn_wssa.pm", 1);
+        assertTrue(bytesPerStep < 1.0, "Step loop allocates " + bytesPerStep + " bytes/step");
+    }
+
+    @Test
+    public void test_eightReactionsWSSA() throws Exception {
+        double bytesPerStep = bytesPerStep("models/eight_rxn/eight_rxn_wSSA.pm", 1);
+        assertTrue(bytesPerStep < 1.0, "Step loop allocates " + bytesPerStep + " bytes/step");
+    }
+
+}
@@ -0,0 +1,116 @@
+package imsam.simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import imsam.ExtendedWSSA;
+
+
+public class ProgressCountersTest {
+
+    @Test
+    public void test_countersMatchStatistics() {
+        Random random = new Random(5);
+        ProgressCounters counters = new ProgressCounters();
+        SampleStatistics stats = new SampleStatistics();
+        long steps = 0;
+        for (int i = 0; i < 10000; i++) {
+            double weight = random.nextInt(3) == 0 ? random.nextDouble() * 1e-4 : 0.0;
+            long length = random.nextInt(100);
+            counters.add(weight, length);
+            stats.add(weight);
+            steps += length;
+        }
+        assertEquals(stats.getCount(), counters.getPaths());
+        assertEquals(stats.getNonZeroCount(), counters.getNonZeroCount());
+        assertEquals(steps, counters.getSteps());
+        assertEquals(stats.getMean(), counters.getMean(), 1e-9 * stats.getMean());
+        assertEquals(stats.getVarianceOfMean(), counters.getVarianceOfMean(), 1e-6 * stats.getVarianceOfMean());
+    }
+
+    /**
+     * Counters resumed from a checkpoint cover the whole run, and only
+     * the paths of this session count for the rate
+     */
+    @Test
+    public void test_resumed() throws InterruptedException {
+        Random random = new Random(7);
+        SampleStatistics all = new SampleStatistics();
+        SampleStatistics resumed = new SampleStatistics();
+        for (int i = 0; i < 6000; i++) {
+            double weight = random.nextInt(3) == 0 ? random.nextDouble() * 1e-4 : 0.0;
+            all.add(weight);
+            resumed.add(weight);
+        }
+        ProgressCounters counters = new ProgressCounters(resumed);
+        for (int i = 0; i < 4000; i++) {
+            double weight = random.nextInt(3) == 0 ? random.nextDouble() * 1e-4 : 0.0;
+            all.add(weight);
+            counters.add(weight, 1);
+        }
+        assertEquals(all.getCount(), counters.getPaths());
+        assertEquals(4000, counters.getSessionPaths());
+        assertEquals(all.getNonZeroCount(), counters.getNonZeroCount());
+        assertEquals(all.getMean(), counters.getMean(), 1e-9 * all.getMean());
+        assertEquals(all.getVarianceOfMean(), counters.getVarianceOfMean(), 1e-6 * all.getVarianceOfMean());
+
+        ExtendedWSSA options = new ExtendedWSSA();
+        options.Nruns = 20000;
+        ProgressReporter reporter = new ProgressReporter(options, counters);
+        Thread.sleep(10);
+        assertEquals(10000, reporter.getCompletedRuns());
+        assertEquals(4000, reporter.getPathsPerSecond() * reporter.getElapsedSeconds(), 40);
+        // 10000 runs left at 4000 per elapsed time
+        double eta = reporter.getEtaSeconds() / reporter.getElapsedSeconds();
+        assertTrue(eta > 2.4 && eta < 2.6, "ETA " + eta + " times the elapsed time");
+        assertTrue(reporter.toString().contains("(50.0%)"), reporter.toString());
+    }
+
+    /**
+     * Concurrent updates must not be lost
+     */
+    @Test
+    public void test_concurrentAdds() throws InterruptedException {
+        ProgressCounters counters = new ProgressCounters();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 100000; i++) {
+                    counters.add(1.0, 2);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400000, counters.getPaths());
+        assertEquals(800000, counters.getSteps());
+        assertEquals(1.0, counters.getMean());
+    }
+
+    @Test
+    public void test_reporterFixedRuns() throws InterruptedException {
+        ExtendedWSSA options = new ExtendedWSSA();
+        options.Nruns = 1000;
+        ProgressCounters counters = new ProgressCounters();
+        ProgressReporter reporter = new ProgressReporter(options, counters);
+        assertTrue(Double.isNaN(reporter.getEtaSeconds()));
+        Thread.sleep(10);
+        for (int i = 0; i < 1000; i++) {
+            counters.add(i % 2, 1);
+        }
+        assertEquals(0.0, reporter.getEtaSeconds());
+        assertEquals(0.5, reporter.getMean());
+        assertTrue(reporter.toJSON().getLong("completedRuns") == 1000);
+        assertTrue(reporter.toPrometheus().contains("imsam_completed_runs 1000\n"));
+        assertEquals("1:01:05", ProgressReporter.formatDuration(3665));
+    }
+
+}
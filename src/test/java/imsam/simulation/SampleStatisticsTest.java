@@ -0,0 +1,72 @@
+package imsam.simulation;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+public class SampleStatisticsTest {
+
+    /**
+     * Weights as produced by importance sampling: mostly zero, a few
+     * small values on a large offset (bad case for the naive formula)
+     */
+    static double[] weights(int n) {
+        Random random = new Random(11);
+        double[] samples = new double[n];
+        for (int i = 0; i < n; i++) {
+            samples[i] = random.nextInt(4) == 0 ? 0.0 : 1e6 + random.nextDouble() * 1e-3;
+        }
+        return samples;
+    }
+
+    @Test
+    public void test_addMatchesTwoPass() {
+        double[] samples = weights(10000);
+        SampleStatistics stats = new SampleStatistics();
+        double sum = 0;
+        long nonZero = 0;
+        for (double sample : samples) {
+            stats.add(sample);
+            sum += sample;
+            nonZero += sample > 0 ? 1 : 0;
+        }
+        double mean = sum / samples.length;
+        double squareSum = 0;
+        for (double sample : samples) {
+            squareSum += (sample - mean) * (sample - mean);
+        }
+        assertEquals(samples.length, stats.getCount());
+        assertEquals(mean, stats.getMean(), 1e-9 * mean);
+        assertEquals(squareSum / (samples.length - 1), stats.getVariance(), 1e-9 * stats.getVariance());
+        assertEquals(nonZero, stats.getNonZeroCount());
+        assertEquals(0.0, stats.getMin());
+    }
+
+    @Test
+    public void test_mergeMatchesSinglePass() {
+        double[] samples = weights(1000);
+        SampleStatistics whole = new SampleStatistics();
+        for (double sample : samples) {
+            whole.add(sample);
+        }
+        // uneven shards, including an empty one
+        int[] bounds = { 0, 1, 1, 300, 999, 1000 };
+        SampleStatistics merged = new SampleStatistics();
+        for (int s = 0; s + 1 < bounds.length; s++) {
+            SampleStatistics shard = new SampleStatistics();
+            for (int i = bounds[s]; i < bounds[s+1]; i++) {
+                shard.add(samples[i]);
+            }
+            merged.merge(shard);
+        }
+        assertEquals(whole.getCount(), merged.getCount());
+        assertEquals(whole.getMean(), merged.getMean(), 1e-12 * whole.getMean());
+        assertEquals(whole.getVariance(), merged.getVariance(), 1e-9 * whole.getVariance());
+        assertEquals(whole.getNonZeroCount(), merged.getNonZeroCount());
+        assertEquals(whole.getMin(), merged.getMin());
+        assertEquals(whole.getMax(), merged.getMax());
+    }
+
+}
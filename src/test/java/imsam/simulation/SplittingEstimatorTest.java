@@ -0,0 +1,84 @@
+package imsam.simulation;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import imsam.ExtendedWSSA;
+
+
+/**
+ * Multilevel splitting must agree with weighted SSA, and not depend on
+ * the number of threads.
+ */
+public class SplittingEstimatorTest {
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * A three_rxn model with the number of c molecules as importance function
+     */
+    ExtendedWSSA loadThreeReactions(String modelFileName) throws Exception {
+        Path model = tempDir.resolve("three_rxn_importance.pm");
+        Files.writeString(model, Files.readString(Path.of(modelFileName))
+                + "\nformula importance = c;\n");
+        return TestModels.load(model.toString(), ExtendedWSSA.Engine.NATIVE, 1);
+    }
+
+    static double[] replicate(ExtendedWSSA wssa, int threads, long seed) throws Exception {
+        ImportanceFunction importance = ImportanceFunction.compile(wssa.modulesFile, "importance", new double[] { 1 });
+        SplittingEstimator estimator = new SplittingEstimator(wssa.network, importance, wssa.TMAX, 2000, threads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            return estimator.replicate(pool, seed);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void test_independentOfThreads() throws Exception {
+        ExtendedWSSA wssa = loadThreeReactions("models/three_rxn/three_rxn.pm");
+        assertArrayEquals(replicate(wssa, 1, 5), replicate(wssa, 3, 5));
+    }
+
+    @Test
+    public void test_agreesWithSSA() throws Exception {
+        assertAgreesWithSSA("models/three_rxn/three_rxn.pm");
+    }
+
+    /**
+     * With maxConstraint=3 the constraint cuts off paths to the objective
+     */
+    @Test
+    public void test_agreesWithSSAUnderConstraint() throws Exception {
+        assertAgreesWithSSA("models/three_rxn/three_rxn_constrained.pm");
+    }
+
+    void assertAgreesWithSSA(String modelFileName) throws Exception {
+        ExtendedWSSA wssa = loadThreeReactions(modelFileName);
+        SampleStatistics splitting = new SampleStatistics();
+        for (int r = 0; r < 20; r++) {
+            double[] probabilities = replicate(wssa, 2, r);
+            splitting.add(probabilities[0] * probabilities[1]);
+        }
+
+        int nruns = 20000;
+        SampleStatistics ssa = new SampleStatistics();
+        wssa.createSampler(7).sample(0, nruns, ssa, null);
+        assertTrue(ssa.getNonZeroCount() > 0, "SSA never reached the objective of " + modelFileName);
+
+        double difference = Math.abs(splitting.getMean() - ssa.getMean());
+        double stdError   = Math.sqrt(splitting.getVariance() / splitting.getCount() + ssa.getVariance() / nruns);
+        assertTrue(difference <= 5 * stdError + 1e-12,
+                "splitting " + splitting.getMean() + " and SSA " + ssa.getMean() + " disagree (std error " + stdError + ")");
+    }
+
+}
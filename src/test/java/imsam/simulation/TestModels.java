@@ -0,0 +1,48 @@
+package imsam.simulation;
+
+import imsam.ExtendedWSSA;
+import prism.Prism;
+import prism.PrismDevNullLog;
+import prism.PrismException;
+
+
+/**
+ * Loads the bundled models for tests. A single PRISM engine is shared by
+ * all test classes, since PRISM should only be initialised once per JVM.
+ */
+public class TestModels {
+
+    private static Prism prism = null;
+
+    public static synchronized Prism prism() throws PrismException {
+        if (prism == null) {
+            prism = new Prism(new PrismDevNullLog());
+            prism.initialise();
+        }
+        return prism;
+    }
+
+    /**
+     * @return weights of paths from..to-1 of a sampler's run, in order
+     */
+    public static double[] sample(PathSampler sampler, long from, long to) throws PrismException {
+        DoubleArrayList retained = new DoubleArrayList();
+        sampler.sample(from, to, new SampleStatistics(), retained);
+        double[] samples = new double[retained.size()];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = retained.get(i);
+        }
+        return samples;
+    }
+
+    public static ExtendedWSSA load(String modelFileName, ExtendedWSSA.Engine engine, double tmax) throws Exception {
+        ExtendedWSSA wssa = new ExtendedWSSA();
+        wssa.prism = prism();
+        wssa.modelFileName = modelFileName;
+        wssa.engine = engine;
+        wssa.TMAX = tmax;
+        wssa.loadModel();
+        return wssa;
+    }
+
+}
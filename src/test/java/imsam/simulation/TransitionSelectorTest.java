@@ -0,0 +1,99 @@
+package imsam.simulation;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import imsam.ExtendedWSSA;
+
+
+/**
+ * All selection strategies must pick the same transition as a linear
+ * scan, and must never pick a transition with rate 0.
+ */
+public class TransitionSelectorTest {
+
+    static double[] randomRates(Random random, int n) {
+        double[] rates = new double[n];
+        for (int i = 0; i < n; i++) {
+            // about a third of the transitions disabled, as under a constraint
+            rates[i] = random.nextInt(3) == 0 ? 0.0 : random.nextDouble() * 100;
+        }
+        return rates;
+    }
+
+    static int linearScan(double[] rates, double x) {
+        double tot = 0.0;
+        for (int i = 0; i < rates.length; i++) {
+            tot += rates[i];
+            if (x < tot) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void test_selectAgreesWithLinearScan() {
+        Random random = new Random(42);
+        for (ExtendedWSSA.Selector kind : ExtendedWSSA.Selector.values()) {
+            TransitionSelector selector = TransitionSelector.create(kind, 4);
+            for (int n : new int[] { 1, 2, 3, 7, 16, 100, 1000 }) {
+                double[] rates = randomRates(random, n);
+                rates[random.nextInt(n)] = 1.0;
+                selector.reset(rates, n);
+                for (int draw = 0; draw < 1000; draw++) {
+                    double x = random.nextDouble() * selector.total();
+                    int expected = linearScan(rates, x);
+                    int actual   = selector.select(x);
+                    assertTrue(rates[actual] > 0, kind + " selected a disabled transition");
+                    // Fenwick partial sums are rounded differently; allow a
+                    // neighbouring pick only when x is at a boundary
+                    if (expected != actual) {
+                        assertEquals(ExtendedWSSA.Selector.FENWICK, kind);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test_updateMatchesReset() {
+        Random random = new Random(7);
+        for (ExtendedWSSA.Selector kind : ExtendedWSSA.Selector.values()) {
+            int n = 257;
+            double[] rates = randomRates(random, n);
+            rates[0] = 1.0;
+            TransitionSelector updated = TransitionSelector.create(kind, n);
+            updated.reset(rates, n);
+            for (int u = 0; u < 500; u++) {
+                int i = random.nextInt(n);
+                rates[i] = random.nextInt(3) == 0 ? 0.0 : random.nextDouble() * 100;
+                updated.update(i, rates[i]);
+            }
+            TransitionSelector fresh = TransitionSelector.create(kind, n);
+            fresh.reset(rates, n);
+            assertEquals(fresh.total(), updated.total(), 1e-9 * fresh.total());
+            for (int draw = 0; draw < 1000; draw++) {
+                double x = random.nextDouble() * fresh.total() * 0.999;
+                assertEquals(linearScan(rates, x), updated.select(x), kind.toString());
+            }
+        }
+    }
+
+    @Test
+    public void test_drawBeyondTotal() {
+        double[] rates = { 0.0, 2.0, 3.0, 0.0 };
+        for (ExtendedWSSA.Selector kind : ExtendedWSSA.Selector.values()) {
+            TransitionSelector selector = TransitionSelector.create(kind, 1);
+            selector.reset(rates, rates.length);
+            assertEquals(5.0, selector.total());
+            assertEquals(1, selector.select(0.0));
+            assertEquals(2, selector.select(2.0));
+            assertEquals(2, selector.select(5.0));
+        }
+    }
+
+}